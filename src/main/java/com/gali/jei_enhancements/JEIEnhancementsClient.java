@@ -1,23 +1,39 @@
 package com.gali.jei_enhancements;
 
 import com.gali.jei_enhancements.bookmark.BookmarkLayoutManager;
+import com.gali.jei_enhancements.bookmark.BookmarkTooltipCache;
+import com.gali.jei_enhancements.bookmark.IngredientBookmarkCloner;
+import com.gali.jei_enhancements.event.BookmarkCommandHandler;
 import com.gali.jei_enhancements.event.BookmarkLayoutClickHandler;
 import com.gali.jei_enhancements.event.BookmarkScrollHandler;
 import net.neoforged.api.distmarker.Dist;
+import net.neoforged.bus.api.IEventBus;
 import net.neoforged.fml.ModContainer;
 import net.neoforged.fml.common.Mod;
+import net.neoforged.neoforge.client.event.RegisterClientReloadListenersEvent;
 import net.neoforged.neoforge.common.NeoForge;
 
 @Mod(value = JEIEnhancements.MODID, dist = Dist.CLIENT)
 public class JEIEnhancementsClient {
-    public JEIEnhancementsClient(ModContainer container) {
+    public JEIEnhancementsClient(IEventBus modEventBus, ModContainer container) {
+        // 检查复制书签所需的JEI内部结构，不兼容时在启动时报错
+        IngredientBookmarkCloner.verify();
+        
         // 加载布局设置
         BookmarkLayoutManager.getInstance().load();
         
         // 注册事件处理器
         NeoForge.EVENT_BUS.register(new BookmarkScrollHandler());
         NeoForge.EVENT_BUS.register(new BookmarkLayoutClickHandler());
+        NeoForge.EVENT_BUS.register(new BookmarkCommandHandler());
+        
+        // 资源重载（语言切换、资源包变化）时清空书签tooltip缓存
+        modEventBus.addListener(this::registerReloadListeners);
         
         JEIEnhancements.LOGGER.info("JEI Enhancements Client initialized");
     }
+    
+    private void registerReloadListeners(RegisterClientReloadListenersEvent event) {
+        event.registerReloadListener(BookmarkTooltipCache.getInstance());
+    }
 }
@@ -0,0 +1,209 @@
+package com.gali.jei_enhancements.bookmark;
+
+import com.gali.jei_enhancements.storage.VarInts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * jei_enhancements_bookmarks.dat二进制格式
+ *
+ * 文件头（大端序）：
+ * - magic "JEIB"（4字节）
+ * - 版本号（1字节）
+ * - 标志位（1字节），FLAG_DEFLATE表示数据段经过Deflater压缩
+ * - 数据段长度（4字节）
+ * - 数据段的CRC32（4字节）
+ *
+ * 数据段（整数均为变长编码，可能为负的值使用zigzag）：
+ * - generation, nextGroupId
+ * - 组数量，每个组：groupId, 标志位(expanded/craftingChain), linkedGroupId
+ * - itemKey字典：数量，每个itemKey的UTF-8字符串
+ * - 书签项数量，每个书签项：id与上一个id的差, groupId, itemKey在字典中的下标, factor, amount, type
+ *
+ * 同一个itemKey只保存一次，字段名不再重复出现
+ */
+final class BookmarkBinaryFormat {
+
+    // "JEIB"
+    static final int MAGIC = 0x4A454942;
+    static final int VERSION = 1;
+
+    private static final int FLAG_DEFLATE = 1;
+
+    private static final int GROUP_EXPANDED = 1;
+    private static final int GROUP_CRAFTING_CHAIN = 2;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private BookmarkBinaryFormat() {
+    }
+
+    static void write(BookmarkSnapshot snapshot, OutputStream out, boolean compress) throws IOException {
+        // 数据段先写到内存中，写完才知道长度和校验和
+        ByteArrayOutputStream body = new ByteArrayOutputStream(Math.max(64, snapshot.items.size() * 8));
+        CRC32 crc = new CRC32();
+        Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        try {
+            OutputStream checked = new CheckedOutputStream(body, crc);
+            OutputStream payload = deflater != null ? new DeflaterOutputStream(checked, deflater, BUFFER_SIZE) : checked;
+            try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(payload, BUFFER_SIZE))) {
+                writePayload(snapshot, data);
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeByte(compress ? FLAG_DEFLATE : 0);
+        header.writeInt(body.size());
+        header.writeInt((int) crc.getValue());
+        body.writeTo(header);
+        header.flush();
+    }
+
+    private static void writePayload(BookmarkSnapshot snapshot, DataOutputStream out) throws IOException {
+        VarInts.writeVarLong(out, snapshot.generation);
+        VarInts.writeVarInt(out, snapshot.nextGroupId);
+
+        VarInts.writeVarInt(out, snapshot.groups.size());
+        for (BookmarkSnapshot.Group group : snapshot.groups) {
+            VarInts.writeSignedVarInt(out, group.groupId);
+            out.writeByte((group.expanded ? GROUP_EXPANDED : 0) | (group.craftingChain ? GROUP_CRAFTING_CHAIN : 0));
+            VarInts.writeSignedVarInt(out, group.linkedGroupId);
+        }
+
+        // 按第一次出现的顺序建立itemKey字典
+        Map<String, Integer> keyIndex = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+        int[] itemKeys = new int[snapshot.items.size()];
+        for (int i = 0; i < itemKeys.length; i++) {
+            String key = snapshot.items.get(i).itemKey;
+            Integer index = keyIndex.get(key);
+            if (index == null) {
+                index = keys.size();
+                keyIndex.put(key, index);
+                keys.add(key);
+            }
+            itemKeys[i] = index;
+        }
+
+        VarInts.writeVarInt(out, keys.size());
+        for (String key : keys) {
+            VarInts.writeString(out, key);
+        }
+
+        // id按加入顺序递增，只保存差值
+        VarInts.writeVarInt(out, itemKeys.length);
+        long previousId = -1;
+        for (int i = 0; i < itemKeys.length; i++) {
+            BookmarkSnapshot.Item item = snapshot.items.get(i);
+            VarInts.writeVarLong(out, item.id - previousId);
+            previousId = item.id;
+            VarInts.writeSignedVarInt(out, item.groupId);
+            VarInts.writeVarInt(out, itemKeys[i]);
+            VarInts.writeVarLong(out, item.factor);
+            VarInts.writeVarLong(out, item.amount);
+            VarInts.writeVarInt(out, item.type);
+        }
+    }
+
+    /**
+     * 读取文件，校验和不一致或版本不支持时抛出IOException
+     */
+    static void read(InputStream in, BookmarkDataSink sink) throws IOException {
+        DataInputStream header = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        if (header.readInt() != MAGIC) {
+            throw new IOException("Not a JEI Enhancements bookmark file");
+        }
+        int version = header.readUnsignedByte();
+        if (version > VERSION) {
+            throw new IOException("Unsupported bookmark file version " + version);
+        }
+        int flags = header.readUnsignedByte();
+        int length = header.readInt();
+        int checksum = header.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid bookmark data length " + length);
+        }
+
+        byte[] body = header.readNBytes(length);
+        if (body.length != length) {
+            throw new EOFException("Bookmark file is truncated");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Bookmark file checksum mismatch");
+        }
+
+        Inflater inflater = (flags & FLAG_DEFLATE) != 0 ? new Inflater() : null;
+        try {
+            InputStream payload = new ByteArrayInputStream(body);
+            if (inflater != null) {
+                payload = new InflaterInputStream(payload, inflater, BUFFER_SIZE);
+            }
+            readPayload(new DataInputStream(new BufferedInputStream(payload, BUFFER_SIZE)), sink);
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    private static void readPayload(DataInputStream in, BookmarkDataSink sink) throws IOException {
+        sink.generation(VarInts.readVarLong(in));
+        sink.nextGroupId(VarInts.readVarInt(in));
+
+        int groupCount = VarInts.readVarInt(in);
+        for (int i = 0; i < groupCount; i++) {
+            BookmarkGroup group = new BookmarkGroup(VarInts.readSignedVarInt(in));
+            int groupFlags = in.readUnsignedByte();
+            group.setExpanded((groupFlags & GROUP_EXPANDED) != 0);
+            group.setCraftingChainEnabled((groupFlags & GROUP_CRAFTING_CHAIN) != 0);
+            group.setLinkedGroupId(VarInts.readSignedVarInt(in));
+            sink.group(group);
+        }
+
+        String[] keys = new String[VarInts.readVarInt(in)];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = VarInts.readString(in);
+        }
+
+        BookmarkItem.BookmarkItemType[] types = BookmarkItem.BookmarkItemType.values();
+        int itemCount = VarInts.readVarInt(in);
+        long id = -1;
+        for (int i = 0; i < itemCount; i++) {
+            id += VarInts.readVarLong(in);
+            int groupId = VarInts.readSignedVarInt(in);
+            String itemKey = keys[VarInts.readVarInt(in)];
+            long factor = VarInts.readVarLong(in);
+            long amount = VarInts.readVarLong(in);
+            BookmarkItem item = new BookmarkItem(groupId, itemKey, factor, types[VarInts.readVarInt(in)]);
+            item.setAmount(amount);
+            sink.item(item, id);
+        }
+    }
+}
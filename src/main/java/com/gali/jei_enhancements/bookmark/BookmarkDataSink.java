@@ -0,0 +1,19 @@
+package com.gali.jei_enhancements.bookmark;
+
+/**
+ * 读取书签文件时接收数据（JSON和二进制格式共用）
+ * 调用顺序由文件决定，实现不能依赖字段顺序
+ */
+interface BookmarkDataSink {
+
+    void generation(long generation);
+
+    void nextGroupId(int nextGroupId);
+
+    void group(BookmarkGroup group);
+
+    /**
+     * @param id 保存的书签项id，旧版本的文件没有id时为-1
+     */
+    void item(BookmarkItem item, long id);
+}
@@ -1,5 +1,7 @@
 package com.gali.jei_enhancements.bookmark;
 
+import org.jetbrains.annotations.Nullable;
+
 /**
  * - groupId: 唯一标识
  * - linkedGroupId: 逻辑链接的组ID（用于crafting chain）
@@ -13,6 +15,14 @@ public class BookmarkGroup {
     private boolean expanded = true;
     private boolean craftingChainEnabled = false;
     
+    // 上一次求解crafting chain的结果（运行时状态，不保存）
+    private int chainCycleCount = 0;
+    private boolean chainConverged = true;
+    
+    // 所属的BookmarkManager（用于在链接或状态变化时同步逻辑组和日志）
+    @Nullable
+    private BookmarkManager owner;
+    
     public BookmarkGroup(int groupId) {
         this.groupId = groupId;
         this.linkedGroupId = -1;  // 默认没有链接
@@ -31,7 +41,17 @@ public class BookmarkGroup {
     }
     
     public void setLinkedGroupId(int linkedGroupId) {
+        if (linkedGroupId < 0) {
+            linkedGroupId = -1;
+        }
+        if (this.linkedGroupId == linkedGroupId) {
+            return;
+        }
+        int oldLinkedGroupId = this.linkedGroupId;
         this.linkedGroupId = linkedGroupId;
+        if (owner != null) {
+            owner.onGroupLinkChanged(this, oldLinkedGroupId);
+        }
     }
     
     /**
@@ -59,11 +79,15 @@ public class BookmarkGroup {
     }
     
     public void setExpanded(boolean expanded) {
+        if (this.expanded == expanded) {
+            return;
+        }
         this.expanded = expanded;
+        notifyChanged();
     }
     
     public void toggleExpanded() {
-        this.expanded = !this.expanded;
+        setExpanded(!this.expanded);
     }
     
     /**
@@ -75,10 +99,59 @@ public class BookmarkGroup {
     }
     
     public void setCraftingChainEnabled(boolean enabled) {
+        if (this.craftingChainEnabled == enabled) {
+            return;
+        }
         this.craftingChainEnabled = enabled;
+        notifyChanged();
     }
     
     public void toggleCraftingChain() {
-        this.craftingChainEnabled = !this.craftingChainEnabled;
+        setCraftingChainEnabled(!this.craftingChainEnabled);
+    }
+    
+    private void notifyChanged() {
+        if (owner != null) {
+            owner.onGroupChanged(this);
+        }
+    }
+    
+    /**
+     * 上一次求解crafting chain时组内是否存在配方环
+     */
+    public boolean hasChainCycles() {
+        return chainCycleCount > 0;
+    }
+    
+    public int getChainCycleCount() {
+        return chainCycleCount;
+    }
+    
+    /**
+     * 组内的配方环是否都在迭代上限内收敛
+     * 不收敛说明环的产出不足以覆盖自身的消耗。此时环内配方的数量回退为第一轮求解的结果，
+     * 只覆盖环外的需求，不包含环自身的消耗（避免把数量推到迭代上限）
+     */
+    public boolean isChainConverged() {
+        return chainConverged;
+    }
+    
+    void setChainCycleState(int cycleCount, boolean converged) {
+        this.chainCycleCount = cycleCount;
+        this.chainConverged = converged;
+    }
+    
+    /**
+     * 加入BookmarkManager时调用
+     */
+    void attach(BookmarkManager owner) {
+        this.owner = owner;
+    }
+    
+    /**
+     * 从BookmarkManager移除时调用
+     */
+    void detach() {
+        this.owner = null;
     }
 }
@@ -28,6 +28,17 @@ public class BookmarkItem {
     @Nullable
     private IBookmark linkedBookmark;
     
+    // 所属的BookmarkManager（用于在分组变化时同步索引）
+    @Nullable
+    private BookmarkManager owner;
+    
+    // 全局顺序号（加入BookmarkManager时分配，越小越靠前）
+    private long sequence;
+    
+    // 所属的配方（由BookmarkManager在生成组内配方时设置）
+    @Nullable
+    private RecipeSegment segment;
+    
     public BookmarkItem(int groupId, String itemKey, long factor, BookmarkItemType type) {
         this.groupId = groupId;
         this.itemKey = itemKey;
@@ -41,7 +52,14 @@ public class BookmarkItem {
     }
     
     public void setGroupId(int groupId) {
+        if (this.groupId == groupId) {
+            return;
+        }
+        int oldGroupId = this.groupId;
         this.groupId = groupId;
+        if (owner != null) {
+            owner.onItemRegrouped(this, oldGroupId);
+        }
     }
     
     public String getItemKey() {
@@ -66,7 +84,7 @@ public class BookmarkItem {
      * 设置当前总数量
      */
     public void setAmount(long amount) {
-        this.amount = Math.max(factor, amount); // 最小为factor（即multiplier=1）
+        updateAmount(Math.max(factor, amount)); // 最小为factor（即multiplier=1）
     }
     
     /**
@@ -80,7 +98,17 @@ public class BookmarkItem {
      * 设置合成次数，自动计算amount
      */
     public void setMultiplier(long multiplier) {
-        this.amount = factor * Math.max(1, multiplier);
+        updateAmount(factor * Math.max(1, multiplier));
+    }
+    
+    private void updateAmount(long amount) {
+        if (this.amount == amount) {
+            return;
+        }
+        this.amount = amount;
+        if (owner != null) {
+            owner.onItemAmountChanged(this);
+        }
     }
     
     /**
@@ -104,7 +132,13 @@ public class BookmarkItem {
     }
     
     public void setType(BookmarkItemType type) {
+        if (this.type == type) {
+            return;
+        }
         this.type = type;
+        if (owner != null) {
+            owner.onItemTypeChanged(this);
+        }
     }
     
     @Nullable
@@ -116,6 +150,39 @@ public class BookmarkItem {
         this.linkedBookmark = bookmark;
     }
     
+    /**
+     * 加入BookmarkManager时调用，记录所属管理器和全局顺序号
+     */
+    void attach(BookmarkManager owner, long sequence) {
+        this.owner = owner;
+        this.sequence = sequence;
+    }
+    
+    /**
+     * 从BookmarkManager移除时调用
+     */
+    void detach() {
+        this.owner = null;
+    }
+    
+    @Nullable
+    BookmarkManager getOwner() {
+        return owner;
+    }
+    
+    long getSequence() {
+        return sequence;
+    }
+    
+    @Nullable
+    RecipeSegment getSegment() {
+        return segment;
+    }
+    
+    void setSegment(@Nullable RecipeSegment segment) {
+        this.segment = segment;
+    }
+    
     /**
      * 是否是输出物品（组头）
      */
@@ -0,0 +1,224 @@
+package com.gali.jei_enhancements.bookmark;
+
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 书签操作日志（记录端）
+ *
+ * BookmarkManager在状态变化时记录操作，save()时取出尚未写出的记录追加到日志文件。
+ * 每条记录是一行JSON，op表示操作类型：
+ * - add：添加书签项（id, groupId, itemKey, factor, amount, type）
+ * - remove：删除书签项（id）
+ * - amount：修改数量（id, amount），同一批次内同一书签项只保留最后的数量
+ * - regroup：修改所属组（id, groupId）
+ * - type：修改类型（id, type）
+ * - group：创建组或修改组的状态（groupId, expanded, craftingChain, linkedGroupId），同一批次内合并
+ * - removeGroup：删除组（groupId）
+ *
+ * id是书签项的全局顺序号，会保存在快照中，加载后保持不变
+ */
+final class BookmarkJournal {
+
+    // 日志超过这个条数时压缩成新的快照
+    static final int COMPACT_THRESHOLD = 2048;
+
+    static final String OP_ADD = "add";
+    static final String OP_REMOVE = "remove";
+    static final String OP_AMOUNT = "amount";
+    static final String OP_REGROUP = "regroup";
+    static final String OP_TYPE = "type";
+    static final String OP_GROUP = "group";
+    static final String OP_REMOVE_GROUP = "removeGroup";
+
+    // 尚未写出的记录（按发生顺序）
+    private final List<JsonObject> pending = new ArrayList<>();
+
+    // 尚未写出的amount/group记录，用于在同一批次内合并
+    private final Map<Long, JsonObject> pendingAmounts = new HashMap<>();
+    private final Map<Integer, JsonObject> pendingGroups = new HashMap<>();
+
+    // 当前快照的代数，以及日志文件中已有的记录数
+    private long generation = 0;
+    private int entryCount = 0;
+
+    // 日志文件与当前状态对不上（首次保存、加载失败、清空数据后），下次保存必须写快照
+    private boolean needsSnapshot = true;
+
+    // 后台写入快照或日志失败，下次保存必须写快照（由写线程设置）
+    private volatile boolean snapshotRequested = false;
+
+    // 加载或回放时暂停记录
+    private boolean suspended = false;
+
+    long getGeneration() {
+        return generation;
+    }
+
+    boolean isSuspended() {
+        return suspended;
+    }
+
+    void setSuspended(boolean suspended) {
+        this.suspended = suspended;
+    }
+
+    /**
+     * 加载完成后调用
+     * @param valid 日志是否与快照一致并且完整回放
+     */
+    void onLoaded(long generation, int entryCount, boolean valid) {
+        clearPending();
+        snapshotRequested = false;
+        this.generation = generation;
+        this.entryCount = entryCount;
+        this.needsSnapshot = !valid;
+    }
+
+    /**
+     * 丢弃记录，下次保存时写快照（清空数据后调用）
+     */
+    void invalidate() {
+        clearPending();
+        needsSnapshot = true;
+    }
+
+    /**
+     * 下次保存是否应该写新的快照而不是追加日志
+     */
+    boolean needsCompaction() {
+        return needsSnapshot || snapshotRequested || entryCount + pending.size() >= COMPACT_THRESHOLD;
+    }
+
+    /**
+     * 后台写入快照或日志失败时调用（可以在任意线程调用），下次保存重新写快照
+     */
+    void requestSnapshot() {
+        snapshotRequested = true;
+    }
+
+    boolean isSnapshotRequested() {
+        return snapshotRequested;
+    }
+
+    /**
+     * 开始新一代快照：丢弃尚未写出的记录（它们已经包含在快照里）
+     * 之后的记录属于新的代数，只有这一代的快照写出后才会追加到日志文件；
+     * 快照写入失败时由requestSnapshot()要求下次保存再写一次更新的快照
+     * @return 新的代数
+     */
+    long startGeneration() {
+        clearPending();
+        generation++;
+        entryCount = 0;
+        needsSnapshot = false;
+        snapshotRequested = false;
+        return generation;
+    }
+
+    /**
+     * 取出尚未写出的记录
+     */
+    List<String> drain() {
+        List<String> lines = new ArrayList<>(pending.size());
+        for (JsonObject entry : pending) {
+            lines.add(entry.toString());
+        }
+        entryCount += lines.size();
+        clearPending();
+        return lines;
+    }
+
+    void recordAddItem(BookmarkItem item) {
+        if (suspended) return;
+
+        JsonObject entry = entry(OP_ADD);
+        entry.addProperty("id", item.getSequence());
+        entry.addProperty("groupId", item.getGroupId());
+        entry.addProperty("itemKey", item.getItemKey());
+        entry.addProperty("factor", item.getFactor());
+        entry.addProperty("amount", item.getAmount());
+        entry.addProperty("type", item.getType().ordinal());
+        pending.add(entry);
+    }
+
+    void recordRemoveItem(BookmarkItem item) {
+        if (suspended) return;
+
+        JsonObject entry = entry(OP_REMOVE);
+        entry.addProperty("id", item.getSequence());
+        pending.add(entry);
+        pendingAmounts.remove(item.getSequence());
+    }
+
+    void recordAmount(BookmarkItem item) {
+        if (suspended) return;
+
+        JsonObject entry = pendingAmounts.get(item.getSequence());
+        if (entry == null) {
+            entry = entry(OP_AMOUNT);
+            entry.addProperty("id", item.getSequence());
+            pendingAmounts.put(item.getSequence(), entry);
+            pending.add(entry);
+        }
+        entry.addProperty("amount", item.getAmount());
+    }
+
+    void recordRegroup(BookmarkItem item) {
+        if (suspended) return;
+
+        JsonObject entry = entry(OP_REGROUP);
+        entry.addProperty("id", item.getSequence());
+        entry.addProperty("groupId", item.getGroupId());
+        pending.add(entry);
+    }
+
+    void recordType(BookmarkItem item) {
+        if (suspended) return;
+
+        JsonObject entry = entry(OP_TYPE);
+        entry.addProperty("id", item.getSequence());
+        entry.addProperty("type", item.getType().ordinal());
+        pending.add(entry);
+    }
+
+    void recordGroup(BookmarkGroup group) {
+        if (suspended) return;
+
+        JsonObject entry = pendingGroups.get(group.getGroupId());
+        if (entry == null) {
+            entry = entry(OP_GROUP);
+            entry.addProperty("groupId", group.getGroupId());
+            pendingGroups.put(group.getGroupId(), entry);
+            pending.add(entry);
+        }
+        entry.addProperty("expanded", group.isExpanded());
+        entry.addProperty("craftingChain", group.isCraftingChainEnabled());
+        entry.addProperty("linkedGroupId", group.getLinkedGroupId());
+    }
+
+    void recordRemoveGroup(int groupId) {
+        if (suspended) return;
+
+        JsonObject entry = entry(OP_REMOVE_GROUP);
+        entry.addProperty("groupId", groupId);
+        pending.add(entry);
+        pendingGroups.remove(groupId);
+    }
+
+    private void clearPending() {
+        pending.clear();
+        pendingAmounts.clear();
+        pendingGroups.clear();
+    }
+
+    private static JsonObject entry(String op) {
+        JsonObject entry = new JsonObject();
+        entry.addProperty("op", op);
+        return entry;
+    }
+}
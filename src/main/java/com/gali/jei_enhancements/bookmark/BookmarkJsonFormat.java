@@ -0,0 +1,156 @@
+package com.gali.jei_enhancements.bookmark;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * jei_enhancements_bookmarks.json格式（旧版本的存档格式，现在用于导入/导出）
+ * 使用JsonReader/JsonWriter流式读写，不构建完整的JSON树
+ */
+final class BookmarkJsonFormat {
+
+    private BookmarkJsonFormat() {
+    }
+
+    static void write(BookmarkSnapshot snapshot, OutputStream out) throws IOException {
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.setIndent("  ");
+
+        writer.beginObject();
+        writer.name("generation").value(snapshot.generation);
+        writer.name("nextGroupId").value(snapshot.nextGroupId);
+
+        // 保存组信息
+        writer.name("groups").beginObject();
+        for (BookmarkSnapshot.Group group : snapshot.groups) {
+            writer.name(String.valueOf(group.groupId)).beginObject();
+            writer.name("expanded").value(group.expanded);
+            writer.name("craftingChain").value(group.craftingChain);
+            writer.name("linkedGroupId").value(group.linkedGroupId);
+            writer.endObject();
+        }
+        writer.endObject();
+
+        // 保存书签项
+        writer.name("items").beginArray();
+        for (BookmarkSnapshot.Item item : snapshot.items) {
+            writer.beginObject();
+            writer.name("id").value(item.id);
+            writer.name("groupId").value(item.groupId);
+            writer.name("itemKey").value(item.itemKey);
+            writer.name("factor").value(item.factor);
+            writer.name("amount").value(item.amount);
+            writer.name("type").value(item.type);
+            writer.endObject();
+        }
+        writer.endArray();
+
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * 读取文件，字段顺序不影响结果，未知字段会被跳过
+     */
+    static void read(Reader in, BookmarkDataSink sink) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "generation" -> sink.generation(reader.nextLong());
+                case "nextGroupId" -> sink.nextGroupId(reader.nextInt());
+                case "groups" -> {
+                    // 加载组信息
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        sink.group(readGroup(reader, Integer.parseInt(reader.nextName())));
+                    }
+                    reader.endObject();
+                }
+                case "items" -> {
+                    // 加载书签项
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readItem(reader, sink);
+                    }
+                    reader.endArray();
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * 读取一个组（groups对象中的一个值）
+     */
+    private static BookmarkGroup readGroup(JsonReader reader, int groupId) throws IOException {
+        BookmarkGroup group = new BookmarkGroup(groupId);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "multiplier" -> group.setMultiplier(reader.nextDouble());
+                case "expanded" -> group.setExpanded(reader.nextBoolean());
+                case "craftingChain" -> group.setCraftingChainEnabled(reader.nextBoolean());
+                case "linkedGroupId" -> group.setLinkedGroupId(reader.nextInt());
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return group;
+    }
+
+    /**
+     * 读取一个书签项（items数组中的一个元素）
+     */
+    private static void readItem(JsonReader reader, BookmarkDataSink sink) throws IOException {
+        int groupId = BookmarkManager.DEFAULT_GROUP_ID;
+        String itemKey = null;
+        long factor = 1;
+        Long amount = null;
+        int type = -1;
+        long id = -1;
+        boolean hasFactor = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id" -> id = reader.nextLong();
+                case "groupId" -> groupId = reader.nextInt();
+                case "itemKey" -> itemKey = reader.nextString();
+                case "factor" -> {
+                    factor = reader.nextLong();
+                    hasFactor = true;
+                }
+                // 兼容旧版本：优先使用factor，否则使用baseQuantity
+                case "baseQuantity" -> {
+                    long baseQuantity = reader.nextInt();
+                    if (!hasFactor) {
+                        factor = baseQuantity;
+                    }
+                }
+                case "amount" -> amount = reader.nextLong();
+                case "type" -> type = reader.nextInt();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (itemKey == null || type < 0) {
+            throw new JsonParseException("Bookmark item is missing itemKey or type at " + reader.getPath());
+        }
+
+        BookmarkItem item = new BookmarkItem(groupId, itemKey, factor, BookmarkItem.BookmarkItemType.values()[type]);
+        if (amount != null) {
+            item.setAmount(amount);
+        }
+        sink.item(item, id);
+    }
+}
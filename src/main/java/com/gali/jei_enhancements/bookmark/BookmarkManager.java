@@ -1,6 +1,8 @@
 package com.gali.jei_enhancements.bookmark;
 
 import com.gali.jei_enhancements.JEIEnhancements;
+import com.gali.jei_enhancements.storage.DebouncedFileWriter;
+import com.gali.jei_enhancements.storage.JournalFile;
 import com.google.gson.*;
 import mezz.jei.api.ingredients.ITypedIngredient;
 import mezz.jei.gui.bookmarks.IBookmark;
@@ -9,7 +11,12 @@ import net.minecraft.client.Minecraft;
 import net.minecraft.core.registries.BuiltInRegistries;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.world.item.ItemStack;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -23,7 +30,18 @@ import java.util.*;
 public class BookmarkManager {
     
     private static final BookmarkManager INSTANCE = new BookmarkManager();
-    private static final String SAVE_FILE_NAME = "jei_enhancements_bookmarks.json";
+    private static final String SAVE_FILE_NAME = "jei_enhancements_bookmarks.dat";
+    private static final String JSON_FILE_NAME = "jei_enhancements_bookmarks.json";
+    private static final String JOURNAL_FILE_NAME = "jei_enhancements_bookmarks.journal";
+    
+    // 存档格式，默认使用二进制格式；-Djei_enhancements.bookmarkFormat=json 时仍然保存为JSON
+    private static final boolean BINARY_FORMAT = !"json".equalsIgnoreCase(System.getProperty("jei_enhancements.bookmarkFormat", "binary"));
+    
+    // 二进制存档是否压缩，可以通过 -Djei_enhancements.compressBookmarks=false 关闭
+    private static final boolean COMPRESS_SAVE = Boolean.parseBoolean(System.getProperty("jei_enhancements.compressBookmarks", "true"));
+    
+    // 是否使用操作日志（关闭后每次保存都写完整快照），可以通过 -Djei_enhancements.journal=false 关闭
+    private static final boolean JOURNAL_ENABLED = Boolean.parseBoolean(System.getProperty("jei_enhancements.journal", "true"));
     
     // 所有书签项
     private final List<BookmarkItem> bookmarkItems = new ArrayList<>();
@@ -31,15 +49,35 @@ public class BookmarkManager {
     // 组信息
     private final Map<Integer, BookmarkGroup> groups = new HashMap<>();
     
+    // 组ID到组内书签项的索引（组内按全局顺序排列）
+    private final Map<Integer, GroupIndex> groupIndex = new HashMap<>();
+    
     // JEI书签到BookmarkItem的映射（使用IdentityHashMap，因为同一物品可能有多个JEI书签实例）
     private final Map<IBookmark, BookmarkItem> jeiBookmarkMap = new IdentityHashMap<>();
     
+    // itemKey到未关联BookmarkItem的队列（按全局顺序，已关联或已删除的项在取出时跳过）
+    private final Map<String, ArrayDeque<BookmarkItem>> unlinkedItems = new HashMap<>();
+    
     // 默认组ID
     public static final int DEFAULT_GROUP_ID = 0;
     
+    // 组ID到所在逻辑组上一次crafting chain求解器的缓存（用于增量调整顶层配方的数量）
+    // 组内配方重新生成、逻辑组变化或有数量被手动修改后失效
+    private final Map<Integer, ChainCache> chainSolvers = new HashMap<>();
+    
+    // 组之间的逻辑链接（由linkedGroupId推导，取消链接后按需重建）
+    private final GroupLinks groupLinks = new GroupLinks();
+    private boolean groupLinksStale = false;
+    
+    // 正在写回crafting chain的求解结果（此时数量变化不使缓存失效）
+    private boolean applyingChainSolution = false;
+    
     // 下一个组ID
     private int nextGroupId = 1;
     
+    // 下一个书签项的全局顺序号
+    private long nextSequence = 0;
+    
     // 是否允许重复添加（用于Mixin）
     private boolean allowDuplicates = false;
     
@@ -49,13 +87,120 @@ public class BookmarkManager {
     // 标记是否需要保存
     private boolean dirty = false;
     
+    // 批量修改的嵌套层数，大于0时推迟关联和保存
+    private int batchDepth = 0;
+    
+    // 批量修改期间推迟关联的JEI书签
+    private final List<IBookmark> pendingLinks = new ArrayList<>();
+    
+    // 书签映射或组结构变化时递增，用于判断BookmarkSlotTable等缓存是否失效
+    private int version = 0;
+    
+    // 后台保存（第一次保存时创建）
+    @Nullable
+    private DebouncedFileWriter saver;
+    
+    // 操作日志：记录自上次快照以来的修改，保存时只追加新的记录
+    private final BookmarkJournal journal = new BookmarkJournal();
+    @Nullable
+    private JournalFile journalFile;
+    
+    /**
+     * 单个组的书签项索引
+     * items按BookmarkItem的全局顺序号排列，view是对外暴露的只读视图
+     * segments是按需生成的组内配方列表，组内容或类型变化后置为null
+     */
+    private static final class GroupIndex {
+        final List<BookmarkItem> items = new ArrayList<>();
+        final List<BookmarkItem> view = Collections.unmodifiableList(items);
+        List<RecipeSegment> segments = null;
+        
+        void insert(BookmarkItem item) {
+            int pos = search(item.getSequence());
+            items.add(pos < 0 ? -pos - 1 : pos, item);
+            segments = null;
+        }
+        
+        boolean remove(BookmarkItem item) {
+            int pos = search(item.getSequence());
+            if (pos >= 0 && items.get(pos) == item) {
+                items.remove(pos);
+                item.setSegment(null);
+                segments = null;
+                return true;
+            }
+            return false;
+        }
+        
+        /**
+         * 获取组内配方，必要时重新生成
+         * 每个RESULT开始一个新配方，之后的INGREDIENT属于它，直到下一个RESULT
+         */
+        List<RecipeSegment> getSegments() {
+            if (segments == null) {
+                List<RecipeSegment> built = new ArrayList<>();
+                RecipeSegment current = null;
+                for (BookmarkItem item : items) {
+                    item.setSegment(null);
+                    if (item.isOutput()) {
+                        current = new RecipeSegment(item);
+                        item.setSegment(current);
+                        built.add(current);
+                    } else if (item.isIngredient() && current != null) {
+                        current.addIngredient(item);
+                        item.setSegment(current);
+                    }
+                }
+                segments = Collections.unmodifiableList(built);
+            }
+            return segments;
+        }
+        
+        private int search(long sequence) {
+            int low = 0;
+            int high = items.size() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                long midSequence = items.get(mid).getSequence();
+                if (midSequence < sequence) {
+                    low = mid + 1;
+                } else if (midSequence > sequence) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+    }
+    
+    /**
+     * 一个逻辑组的crafting chain求解器缓存
+     * groupIds是参与求解的组（开启了crafting chain的链接组），parts是求解时各组的配方列表
+     */
+    private static final class ChainCache {
+        final int[] groupIds;
+        final List<List<RecipeSegment>> parts;
+        final int linkVersion;
+        final int recipeCount;
+        final CraftingChainSolver solver;
+        
+        ChainCache(int[] groupIds, List<List<RecipeSegment>> parts, int linkVersion, int recipeCount, CraftingChainSolver solver) {
+            this.groupIds = groupIds;
+            this.parts = parts;
+            this.linkVersion = linkVersion;
+            this.recipeCount = recipeCount;
+            this.solver = solver;
+        }
+    }
+    
     public static BookmarkManager getInstance() {
         return INSTANCE;
     }
     
     public BookmarkManager() {
         // 初始化默认组
-        groups.put(DEFAULT_GROUP_ID, new BookmarkGroup(DEFAULT_GROUP_ID));
+        registerGroup(new BookmarkGroup(DEFAULT_GROUP_ID));
     }
     
 
@@ -67,6 +212,32 @@ public class BookmarkManager {
         this.allowDuplicates = allow;
     }
     
+    /**
+     * 开始批量修改：在endBatch()之前推迟tryLinkBookmark()和save()
+     * 可以嵌套，最外层结束时才执行
+     */
+    public void beginBatch() {
+        batchDepth++;
+    }
+    
+    /**
+     * 结束批量修改：关联期间添加但仍未关联的JEI书签，然后保存一次
+     */
+    public void endBatch() {
+        if (batchDepth == 0 || --batchDepth > 0) {
+            return;
+        }
+        
+        if (!pendingLinks.isEmpty()) {
+            List<IBookmark> bookmarks = new ArrayList<>(pendingLinks);
+            pendingLinks.clear();
+            for (IBookmark bookmark : bookmarks) {
+                tryLinkBookmark(bookmark);
+            }
+        }
+        save();
+    }
+    
     public int getCurrentAddingGroupId() {
         return currentAddingGroupId;
     }
@@ -81,7 +252,7 @@ public class BookmarkManager {
      */
     public int createGroup() {
         int groupId = nextGroupId++;
-        groups.put(groupId, new BookmarkGroup(groupId));
+        registerGroup(new BookmarkGroup(groupId));
         markDirty();
         return groupId;
     }
@@ -104,12 +275,20 @@ public class BookmarkManager {
      * 删除组及其所有书签项
      */
     public void removeGroup(int groupId) {
+        GroupIndex index = groupIndex.remove(groupId);
+        if (index != null) {
+            for (BookmarkItem item : index.items) {
+                journal.recordRemoveItem(item);
+                item.detach();
+            }
+        }
+        
         if (groupId == DEFAULT_GROUP_ID) {
             // 不能删除默认组，只清空其内容
             bookmarkItems.removeIf(item -> item.getGroupId() == DEFAULT_GROUP_ID);
         } else {
             bookmarkItems.removeIf(item -> item.getGroupId() == groupId);
-            groups.remove(groupId);
+            unregisterGroup(groupId);
         }
         // 清理jeiBookmarkMap
         jeiBookmarkMap.entrySet().removeIf(entry -> entry.getValue().getGroupId() == groupId);
@@ -135,16 +314,17 @@ public class BookmarkManager {
         
         // 确保组存在
         if (!groups.containsKey(groupId)) {
-            groups.put(groupId, new BookmarkGroup(groupId));
+            registerGroup(new BookmarkGroup(groupId));
         }
         
         BookmarkItem item = new BookmarkItem(groupId, itemKey, baseQuantity, type);
         item.setLinkedBookmark(jeiBookmark);
-        bookmarkItems.add(item);
+        addToIndex(item);
         
         // 建立JEI书签到BookmarkItem的映射
         if (jeiBookmark != null) {
             jeiBookmarkMap.put(jeiBookmark, item);
+            version++;
         }
         
         markDirty();
@@ -164,11 +344,24 @@ public class BookmarkManager {
         return null;
     }
     
+    /**
+     * 书签映射或组结构的版本号，每次变化时递增（数量变化不计入）
+     */
+    public int getVersion() {
+        return version;
+    }
+    
     /**
      * 尝试将JEI书签与已保存的BookmarkItem关联
      * 按顺序匹配第一个itemKey相同且未关联的BookmarkItem
      */
     public void tryLinkBookmark(IBookmark bookmark) {
+        // 批量修改期间，调用方会自己建立映射，剩下的在endBatch()时关联
+        if (batchDepth > 0) {
+            pendingLinks.add(bookmark);
+            return;
+        }
+        
         // 确保数据已加载
         ensureLoaded();
         
@@ -178,16 +371,33 @@ public class BookmarkManager {
         }
         
         String itemKey = getItemKey(bookmark);
+        ArrayDeque<BookmarkItem> queue = unlinkedItems.get(itemKey);
+        if (queue == null) {
+            return;
+        }
         
-        // 按顺序查找第一个itemKey相同且未关联的BookmarkItem
-        for (BookmarkItem item : bookmarkItems) {
-            if (item.getItemKey().equals(itemKey) && item.getLinkedBookmark() == null) {
+        // 按顺序取出第一个仍然未关联的BookmarkItem
+        BookmarkItem item;
+        while ((item = queue.poll()) != null) {
+            if (item.getOwner() == this && item.getLinkedBookmark() == null) {
                 // 建立映射
                 item.setLinkedBookmark(bookmark);
                 jeiBookmarkMap.put(bookmark, item);
-                return;
+                version++;
+                break;
             }
         }
+        
+        if (queue.isEmpty()) {
+            unlinkedItems.remove(itemKey);
+        }
+    }
+    
+    /**
+     * 将未关联的书签项加入对应itemKey的队列末尾
+     */
+    private void enqueueUnlinked(BookmarkItem item) {
+        unlinkedItems.computeIfAbsent(item.getItemKey(), key -> new ArrayDeque<>()).add(item);
     }
     
     // 标记是否已加载
@@ -208,8 +418,51 @@ public class BookmarkManager {
      */
     public void clearMappings() {
         jeiBookmarkMap.clear();
+        version++;
+        unlinkedItems.clear();
         for (BookmarkItem item : bookmarkItems) {
             item.setLinkedBookmark(null);
+            enqueueUnlinked(item);
+        }
+    }
+    
+    /**
+     * 按给定的对应关系更新JEI书签映射，只修改变化的部分
+     * 映射完全没变时不增加版本号，依赖版本号的缓存保持有效
+     * @param items 书签项
+     * @param bookmarks 每个书签项对应的JEI书签（与items一一对应，null表示没有对应的书签）
+     */
+    public void reconcileLinks(List<BookmarkItem> items, List<IBookmark> bookmarks) {
+        boolean changed = false;
+        
+        // 移除不再使用的JEI书签的映射
+        Set<IBookmark> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (IBookmark bookmark : bookmarks) {
+            if (bookmark != null) {
+                kept.add(bookmark);
+            }
+        }
+        if (jeiBookmarkMap.keySet().removeIf(bookmark -> !kept.contains(bookmark))) {
+            changed = true;
+        }
+        
+        unlinkedItems.clear();
+        for (int i = 0; i < items.size(); i++) {
+            BookmarkItem item = items.get(i);
+            IBookmark bookmark = bookmarks.get(i);
+            if (item.getLinkedBookmark() != bookmark) {
+                item.setLinkedBookmark(bookmark);
+                changed = true;
+            }
+            if (bookmark == null) {
+                enqueueUnlinked(item);
+            } else if (jeiBookmarkMap.put(bookmark, item) != item) {
+                changed = true;
+            }
+        }
+        
+        if (changed) {
+            version++;
         }
     }
     
@@ -218,6 +471,7 @@ public class BookmarkManager {
      */
     public void linkBookmark(IBookmark bookmark, BookmarkItem item) {
         jeiBookmarkMap.put(bookmark, item);
+        version++;
     }
     
     /**
@@ -225,8 +479,8 @@ public class BookmarkManager {
      */
     public BookmarkItem findBookmarkItem(IBookmark bookmark, int groupId) {
         String itemKey = getItemKey(bookmark);
-        for (BookmarkItem item : bookmarkItems) {
-            if (item.getGroupId() == groupId && item.getItemKey().equals(itemKey)) {
+        for (BookmarkItem item : getGroupItems(groupId)) {
+            if (item.getItemKey().equals(itemKey)) {
                 return item;
             }
         }
@@ -235,15 +489,19 @@ public class BookmarkManager {
     
     /**
      * 获取指定组的所有书签项
+     * 返回的是组索引的只读视图，会随组内容变化；遍历时如需修改分组请先复制
      */
     public List<BookmarkItem> getGroupItems(int groupId) {
-        List<BookmarkItem> result = new ArrayList<>();
-        for (BookmarkItem item : bookmarkItems) {
-            if (item.getGroupId() == groupId) {
-                result.add(item);
-            }
-        }
-        return result;
+        GroupIndex index = groupIndex.get(groupId);
+        return index != null ? index.view : Collections.emptyList();
+    }
+    
+    /**
+     * 获取指定组的书签项数量
+     */
+    public int getGroupSize(int groupId) {
+        GroupIndex index = groupIndex.get(groupId);
+        return index != null ? index.items.size() : 0;
     }
     
     /**
@@ -253,16 +511,303 @@ public class BookmarkManager {
         return new ArrayList<>(bookmarkItems);
     }
     
+    /**
+     * 获取指定组内的所有配方（按组内顺序）
+     */
+    public List<RecipeSegment> getRecipeSegments(int groupId) {
+        GroupIndex index = groupIndex.get(groupId);
+        return index != null ? index.getSegments() : Collections.emptyList();
+    }
+    
+    /**
+     * 获取书签项所属的配方（RESULT或其INGREDIENT），不属于任何配方时返回null
+     */
+    @Nullable
+    public RecipeSegment getRecipeSegment(BookmarkItem item) {
+        if (item.getOwner() != this) {
+            return null;
+        }
+        GroupIndex index = groupIndex.get(item.getGroupId());
+        if (index == null) {
+            return null;
+        }
+        index.getSegments();
+        return item.getSegment();
+    }
+    
+    /**
+     * 获取书签项总数
+     */
+    public int getItemCount() {
+        return bookmarkItems.size();
+    }
+    
+    /**
+     * 将书签项加入列表和组索引
+     */
+    private void addToIndex(BookmarkItem item) {
+        addToIndex(item, nextSequence);
+    }
+    
+    /**
+     * 以指定的顺序号加入（加载时使用保存的id），顺序号必须大于已有的书签项
+     */
+    private void addToIndex(BookmarkItem item, long sequence) {
+        version++;
+        item.attach(this, sequence);
+        nextSequence = sequence + 1;
+        bookmarkItems.add(item);
+        groupIndex.computeIfAbsent(item.getGroupId(), id -> new GroupIndex()).insert(item);
+        if (item.getLinkedBookmark() == null) {
+            enqueueUnlinked(item);
+        }
+        journal.recordAddItem(item);
+    }
+    
+    /**
+     * 将书签项从列表和组索引中移除
+     */
+    private void removeFromIndex(BookmarkItem item) {
+        version++;
+        journal.recordRemoveItem(item);
+        bookmarkItems.remove(item);
+        removeFromGroupIndex(item, item.getGroupId());
+        item.detach();
+    }
+    
+    private void removeFromGroupIndex(BookmarkItem item, int groupId) {
+        GroupIndex index = groupIndex.get(groupId);
+        if (index != null && index.remove(item) && index.items.isEmpty()) {
+            groupIndex.remove(groupId);
+        }
+    }
+    
+    /**
+     * 书签项的groupId变化时由BookmarkItem回调，同步组索引
+     */
+    void onItemRegrouped(BookmarkItem item, int oldGroupId) {
+        version++;
+        removeFromGroupIndex(item, oldGroupId);
+        groupIndex.computeIfAbsent(item.getGroupId(), id -> new GroupIndex()).insert(item);
+        journal.recordRegroup(item);
+        markDirty();
+    }
+    
+    /**
+     * 书签项的类型变化时由BookmarkItem回调，使组内配方失效
+     */
+    void onItemTypeChanged(BookmarkItem item) {
+        version++;
+        GroupIndex index = groupIndex.get(item.getGroupId());
+        if (index != null) {
+            index.segments = null;
+        }
+        journal.recordType(item);
+        markDirty();
+    }
+    
+    /**
+     * 书签项的数量变化时由BookmarkItem回调
+     * 不是由crafting chain求解引起的变化会让该组缓存的求解结果失效
+     */
+    void onItemAmountChanged(BookmarkItem item) {
+        if (!applyingChainSolution) {
+            invalidateChain(item.getGroupId());
+        }
+        journal.recordAmount(item);
+        markDirty();
+    }
+    
+    /**
+     * 组的linkedGroupId变化时由BookmarkGroup回调，同步逻辑组
+     * 新增链接直接合并，其余情况（取消或改变链接）在下次查询时重建
+     */
+    void onGroupLinkChanged(BookmarkGroup group, int oldLinkedGroupId) {
+        version++;
+        if (!groupLinksStale && oldLinkedGroupId < 0 && groups.containsKey(group.getLinkedGroupId())) {
+            groupLinks.union(group.getGroupId(), group.getLinkedGroupId());
+        } else {
+            groupLinksStale = true;
+        }
+        journal.recordGroup(group);
+        markDirty();
+    }
+    
+    /**
+     * 组的展开/crafting chain状态变化时由BookmarkGroup回调
+     */
+    void onGroupChanged(BookmarkGroup group) {
+        version++;
+        journal.recordGroup(group);
+        markDirty();
+    }
+    
+    /**
+     * 加入组，并让组的链接变化回调到这里
+     * 其他组可能链接到这个组ID，所以逻辑组在下次查询时重建
+     */
+    private void registerGroup(BookmarkGroup group) {
+        version++;
+        group.attach(this);
+        BookmarkGroup previous = groups.put(group.getGroupId(), group);
+        if (previous != null) {
+            previous.detach();
+        }
+        groupLinksStale = true;
+        journal.recordGroup(group);
+    }
+    
+    /**
+     * 移除组，并把逻辑组中剩下的组重新链接起来
+     */
+    private void unregisterGroup(int groupId) {
+        version++;
+        if (!groups.containsKey(groupId)) return;
+        
+        releaseLinks(List.of(groupId));
+        invalidateChain(groupId);
+        groups.remove(groupId).detach();
+        journal.recordRemoveGroup(groupId);
+    }
+    
+    /**
+     * 移除所有组（之后需要重新加入默认组）
+     */
+    private void clearGroups() {
+        version++;
+        for (BookmarkGroup group : groups.values()) {
+            group.detach();
+        }
+        groups.clear();
+        groupLinks.clear();
+        groupLinksStale = false;
+        chainSolvers.clear();
+    }
+    
+    // ==================== 逻辑组（组链接） ====================
+    
+    private GroupLinks links() {
+        if (groupLinksStale) {
+            groupLinks.clear();
+            for (BookmarkGroup group : groups.values()) {
+                if (group.hasLink() && groups.containsKey(group.getLinkedGroupId())) {
+                    groupLinks.union(group.getGroupId(), group.getLinkedGroupId());
+                }
+            }
+            groupLinksStale = false;
+        }
+        return groupLinks;
+    }
+    
+    /**
+     * 两个组是否属于同一个逻辑组
+     */
+    public boolean isSameLogicalGroup(int groupId, int otherGroupId) {
+        return links().isLinked(groupId, otherGroupId);
+    }
+    
+    /**
+     * 组所在逻辑组的所有组ID（包括自身，只读）
+     */
+    public List<Integer> getLinkedGroupIds(int groupId) {
+        return links().getMembers(groupId);
+    }
+    
+    /**
+     * 把多个组链接成一个逻辑组，第一个组作为链接目标
+     * 已有的逻辑组整体并入（只改动对方逻辑组中没有链接的那个组）
+     */
+    public void linkGroups(Collection<Integer> groupIds) {
+        List<Integer> ids = new ArrayList<>();
+        for (int groupId : groupIds) {
+            if (groupId != DEFAULT_GROUP_ID && groups.containsKey(groupId) && !ids.contains(groupId)) {
+                ids.add(groupId);
+            }
+        }
+        if (ids.size() < 2) return;
+        
+        int anchorId = ids.get(0);
+        for (int i = 1; i < ids.size(); i++) {
+            int groupId = ids.get(i);
+            if (isSameLogicalGroup(anchorId, groupId)) continue;
+            
+            // 逻辑组是一棵树，只有根没有有效链接，把根链接到anchor即可
+            BookmarkGroup head = groups.get(groupId);
+            for (int memberId : getLinkedGroupIds(groupId)) {
+                BookmarkGroup member = groups.get(memberId);
+                if (member != null && !(member.hasLink() && groups.containsKey(member.getLinkedGroupId()))) {
+                    head = member;
+                    break;
+                }
+            }
+            head.setLinkedGroupId(anchorId);
+        }
+        
+        recalculateCraftingChain(anchorId);
+        markDirty();
+    }
+    
+    /**
+     * 把组从所在的逻辑组中移出，逻辑组中剩下的组保持链接
+     * 之后重新计算受影响的各个逻辑组
+     */
+    public void unlinkGroups(Collection<Integer> groupIds) {
+        Set<Integer> affected = releaseLinks(groupIds);
+        
+        Set<Integer> solvedRoots = new HashSet<>();
+        for (int groupId : affected) {
+            if (groups.containsKey(groupId) && solvedRoots.add(links().find(groupId))) {
+                recalculateCraftingChainInGroup(groupId);
+            }
+        }
+        markDirty();
+    }
+    
+    /**
+     * 清除指定组的链接，逻辑组中剩下的组重新链接到其中ID最小的组
+     * @return 原来所在逻辑组的所有组ID
+     */
+    private Set<Integer> releaseLinks(Collection<Integer> groupIds) {
+        Set<Integer> selected = new HashSet<>(groupIds);
+        Set<Integer> affected = new LinkedHashSet<>();
+        
+        for (int groupId : groupIds) {
+            if (affected.contains(groupId)) continue;
+            
+            List<Integer> members = new ArrayList<>(getLinkedGroupIds(groupId));
+            affected.addAll(members);
+            
+            List<Integer> remaining = new ArrayList<>();
+            for (int memberId : members) {
+                BookmarkGroup member = groups.get(memberId);
+                if (member == null) continue;
+                if (selected.contains(memberId)) {
+                    member.setLinkedGroupId(-1);
+                } else {
+                    remaining.add(memberId);
+                }
+            }
+            
+            Collections.sort(remaining);
+            for (int i = 0; i < remaining.size(); i++) {
+                groups.get(remaining.get(i)).setLinkedGroupId(i == 0 ? -1 : remaining.get(0));
+            }
+        }
+        
+        return affected;
+    }
+    
     /**
      * 当JEI书签被删除时调用（仅处理单个书签，不处理组头）
      */
     public void onBookmarkRemoved(IBookmark bookmark) {
         // 首先尝试从映射表查找
         BookmarkItem item = jeiBookmarkMap.remove(bookmark);
+        version++;
         
         if (item != null) {
             // 组头的删除由mixin处理，这里只删除单个成员
-            bookmarkItems.remove(item);
+            removeFromIndex(item);
             markDirty();
         }
     }
@@ -287,6 +832,11 @@ public class BookmarkManager {
         
         // 如果是组头（RESULT类型）且在非默认组，调整整个配方（同一个RESULT下的所有INGREDIENT）
         if (item.isOutput() && item.getGroupId() != DEFAULT_GROUP_ID) {
+            // crafting chain模式下调整顶层配方时，只增量传播数量的变化
+            if (group != null && group.isCraftingChainEnabled() && shiftChainTopAmount(item, shift)) {
+                return;
+            }
+            
             // 调整这个配方的所有物品
             shiftRecipeAmount(item, shift);
             
@@ -302,6 +852,88 @@ public class BookmarkManager {
         markDirty();
     }
     
+    /**
+     * 用缓存的求解器调整crafting chain顶层配方的数量
+     * 只有逻辑组内有多个配方、缓存有效且item是顶层配方时才处理
+     * @return 是否已处理（否则走完整的调整和重新计算）
+     */
+    private boolean shiftChainTopAmount(BookmarkItem resultItem, long shift) {
+        int groupId = resultItem.getGroupId();
+        ChainCache cache = chainSolvers.get(groupId);
+        if (cache == null || cache.recipeCount <= 1 || !isChainCacheValid(cache, groupId)
+                || !cache.solver.isTop(resultItem.getSegment())) {
+            return false;
+        }
+        
+        long newMultiplier = shiftMultiplier(resultItem.getMultiplier(), shift, 1);
+        CraftingChainSolver.Result result;
+        applyingChainSolution = true;
+        try {
+            result = cache.solver.update(newMultiplier);
+        } finally {
+            applyingChainSolution = false;
+        }
+        setChainCycleState(cache.groupIds, result);
+        
+        markDirty();
+        return true;
+    }
+    
+    /**
+     * 缓存是否仍然对应当前的逻辑组和各组的配方
+     */
+    private boolean isChainCacheValid(ChainCache cache, int groupId) {
+        if (cache.linkVersion != links().getVersion() || !Arrays.equals(cache.groupIds, getChainGroupIds(groupId))) {
+            return false;
+        }
+        for (int i = 0; i < cache.groupIds.length; i++) {
+            if (cache.parts.get(i) != getRecipeSegments(cache.groupIds[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 使组所在逻辑组的求解器缓存失效
+     */
+    private void invalidateChain(int groupId) {
+        ChainCache cache = chainSolvers.remove(groupId);
+        if (cache != null) {
+            for (int memberId : cache.groupIds) {
+                chainSolvers.remove(memberId);
+            }
+        }
+    }
+    
+    /**
+     * 逻辑组中开启了crafting chain的组（按组ID排序）
+     */
+    private int[] getChainGroupIds(int groupId) {
+        List<Integer> members = getLinkedGroupIds(groupId);
+        int[] ids = new int[members.size()];
+        int count = 0;
+        for (int memberId : members) {
+            BookmarkGroup member = groups.get(memberId);
+            if (member != null && member.isCraftingChainEnabled()) {
+                ids[count++] = memberId;
+            }
+        }
+        ids = Arrays.copyOf(ids, count);
+        Arrays.sort(ids);
+        return ids;
+    }
+    
+    private void setChainCycleState(int[] groupIds, CraftingChainSolver.Result result) {
+        for (int memberId : groupIds) {
+            BookmarkGroup member = groups.get(memberId);
+            if (member != null && (member.getChainCycleCount() != result.cycleCount || member.isChainConverged() != result.converged)) {
+                member.setChainCycleState(result.cycleCount, result.converged);
+                version++;
+            }
+        }
+    }
+    
     /**
      * 调整配方的数量（RESULT及其关联的INGREDIENT）
      * 如果组内只有一个RESULT，则更新组内所有物品
@@ -316,38 +948,17 @@ public class BookmarkManager {
         long currentMultiplier = resultItem.getMultiplier();
         long newMultiplier = shiftMultiplier(currentMultiplier, shift, 1);
         
-        // 统计组内RESULT的数量
-        int resultCount = 0;
-        for (BookmarkItem item : items) {
-            if (item.isOutput()) {
-                resultCount++;
-            }
-        }
-        
         // 如果组内只有一个RESULT，更新组内所有物品
-        if (resultCount <= 1) {
+        if (getRecipeSegments(groupId).size() <= 1) {
             for (BookmarkItem item : items) {
                 item.setMultiplier(newMultiplier);
             }
         } else {
             // 多个RESULT的情况，只更新当前RESULT及其后面的INGREDIENT（直到下一个RESULT）
-            int resultIndex = items.indexOf(resultItem);
-            if (resultIndex < 0) return;
+            RecipeSegment segment = getRecipeSegment(resultItem);
+            if (segment == null) return;
             
-            // 更新RESULT
-            resultItem.setMultiplier(newMultiplier);
-            
-            // 更新同一配方的INGREDIENT（紧跟在RESULT后面的INGREDIENT）
-            for (int i = resultIndex + 1; i < items.size(); i++) {
-                BookmarkItem nextItem = items.get(i);
-                if (nextItem.isOutput()) {
-                    // 遇到下一个RESULT，停止
-                    break;
-                }
-                if (nextItem.isIngredient()) {
-                    nextItem.setMultiplier(newMultiplier);
-                }
-            }
+            segment.setMultiplier(newMultiplier);
         }
         
         markDirty();
@@ -420,196 +1031,62 @@ public class BookmarkManager {
     }
     
     /**
-     * 重新计算组内的crafting chain
+     * 重新计算组所在逻辑组的crafting chain
+     * 逻辑组中所有开启了crafting chain的组一起求解，其他逻辑组不受影响
      * 
-     * 核心逻辑（参考NEI的RecipeChainMath.refresh）：
-     * 1. 建立INGREDIENT到RESULT的映射（preferredItems）
-     * 2. 从顶层配方开始，计算每个INGREDIENT的需求量
-     * 3. 如果某个INGREDIENT有对应的RESULT能提供，累加需求量到那个RESULT
-     * 4. 只有当需求量超过当前产出量时，才增加合成次数
+     * 核心逻辑（参考NEI的RecipeChainMath.refresh），具体见CraftingChainSolver：
+     * 1. 建立INGREDIENT到RESULT的映射（preferredItems），得到配方之间的生产者/消费者图
+     * 2. 从顶层配方（顺序最靠前的RESULT）开始按拓扑顺序传播需求量
+     * 3. 每个RESULT的合成次数 = ceil(累计需求量 / factor)
+     * 4. 配方环整体做不动点迭代，结果记录在BookmarkGroup上用于界面提示
      */
     public void recalculateCraftingChainInGroup(int groupId) {
-        BookmarkGroup group = groups.get(groupId);
-        if (group == null || !group.isCraftingChainEnabled()) return;
-        
-        List<BookmarkItem> items = getGroupItems(groupId);
-        if (items.isEmpty()) return;
-        
-        // 分离RESULT和INGREDIENT
-        List<BookmarkItem> results = new ArrayList<>();
-        List<BookmarkItem> ingredients = new ArrayList<>();
-        
-        for (BookmarkItem item : items) {
-            if (item.isOutput()) {
-                results.add(item);
-            } else if (item.isIngredient()) {
-                ingredients.add(item);
-            }
-        }
-        
-        if (results.isEmpty()) return;
-        
-        // 建立INGREDIENT到RESULT的映射（NEI的preferredItems）
-        java.util.Map<BookmarkItem, BookmarkItem> preferredItems = new java.util.HashMap<>();
-        for (BookmarkItem result : results) {
-            collectPreferredItems(result, ingredients, results, preferredItems, new HashSet<>());
-        }
+        if (!groups.containsKey(groupId)) return;
         
-        // 找到顶层配方（第一个RESULT）
-        BookmarkItem firstResult = results.get(0);
+        invalidateChain(groupId);
+        int[] chainGroupIds = getChainGroupIds(groupId);
+        if (chainGroupIds.length == 0) return;
         
-        // 用于累加每个RESULT的需求量
-        java.util.Map<BookmarkItem, Long> requiredAmount = new java.util.HashMap<>();
-        
-        // 用于跟踪每个RESULT当前的产出量（计算过程中使用）
-        java.util.Map<BookmarkItem, Long> currentAmount = new java.util.HashMap<>();
-        
-        // 初始化：非顶层配方的产出量为0
-        for (BookmarkItem result : results) {
-            if (result == firstResult) {
-                currentAmount.put(result, result.getAmount());
-            } else {
-                currentAmount.put(result, 0L);
+        List<List<RecipeSegment>> parts = new ArrayList<>(chainGroupIds.length);
+        List<RecipeSegment> recipes;
+        if (chainGroupIds.length == 1) {
+            recipes = getRecipeSegments(chainGroupIds[0]);
+            parts.add(recipes);
+        } else {
+            recipes = new ArrayList<>();
+            for (int memberId : chainGroupIds) {
+                List<RecipeSegment> part = getRecipeSegments(memberId);
+                parts.add(part);
+                recipes.addAll(part);
             }
+            // 各组的配方按书签顺序合并，顶层配方是整个逻辑组中最靠前的RESULT
+            recipes.sort(Comparator.comparingLong(recipe -> recipe.getResult().getSequence()));
         }
         
-        // 顶层配方的multiplier
-        long topMultiplier = firstResult.getMultiplier();
-        
-        // 从顶层配方开始，递归计算所有配方的需求量
-        calculateChainRequirements(firstResult, topMultiplier, ingredients, preferredItems, 
-                requiredAmount, currentAmount, new HashSet<>());
-        
-        // 最后，根据计算结果更新所有配方的multiplier
-        for (BookmarkItem result : results) {
-            if (result == firstResult) continue;
-            
-            long amount = currentAmount.getOrDefault(result, 0L);
-            if (amount > 0) {
-                long multiplier = (long) Math.ceil((double) amount / result.getFactor());
-                result.setMultiplier(multiplier);
-                
-                // 同步更新这个配方的INGREDIENT
-                List<BookmarkItem> recipeIngrs = findRecipeIngredients(result, ingredients);
-                for (BookmarkItem ingr : recipeIngrs) {
-                    ingr.setMultiplier(multiplier);
-                }
-            }
+        if (recipes.isEmpty()) {
+            setChainCycleState(chainGroupIds, new CraftingChainSolver.Result(0, true));
+            return;
         }
         
-        markDirty();
-    }
-    
-    /**
-     * 递归计算配方链的需求量（参考NEI的calculateSuitableRecipe）
-     * 
-     * 关键逻辑：
-     * 1. 累加需求量到requiredAmount
-     * 2. 只有当需求量超过当前产出量时，才增加合成次数（shift）
-     * 3. 增加合成次数后，递归处理该配方的INGREDIENT
-     */
-    private void calculateChainRequirements(BookmarkItem resultItem, long multiplier,
-            List<BookmarkItem> allIngredients,
-            java.util.Map<BookmarkItem, BookmarkItem> preferredItems,
-            java.util.Map<BookmarkItem, Long> requiredAmount,
-            java.util.Map<BookmarkItem, Long> currentAmount,
-            Set<BookmarkItem> visited) {
-        
-        if (visited.contains(resultItem)) return;
-        visited.add(resultItem);
-        
-        // 找到这个配方的INGREDIENT
-        List<BookmarkItem> recipeIngredients = findRecipeIngredients(resultItem, allIngredients);
-        
-        // 对于每个INGREDIENT，检查是否有配方能提供它
-        for (BookmarkItem ingrItem : recipeIngredients) {
-            BookmarkItem prefResult = preferredItems.get(ingrItem);
-            if (prefResult != null) {
-                // 计算这个INGREDIENT需要多少
-                long ingrNeeded = ingrItem.getFactor() * multiplier;
-                
-                // 累加到提供这个物品的RESULT的需求量上
-                long prevRequired = requiredAmount.getOrDefault(prefResult, 0L);
-                long newRequired = prevRequired + ingrNeeded;
-                requiredAmount.put(prefResult, newRequired);
-                
-                // 计算需要增加多少合成次数（NEI的shift计算）
-                // shift = ceil((requiredAmount - currentAmount) / factor)
-                long prevAmount = currentAmount.getOrDefault(prefResult, 0L);
-                long shift = (long) Math.ceil((double)(newRequired - prevAmount) / prefResult.getFactor());
-                
-                if (shift > 0) {
-                    // 增加这个配方的产出量
-                    long newAmount = prevAmount + shift * prefResult.getFactor();
-                    currentAmount.put(prefResult, newAmount);
-                    
-                    // 递归处理这个配方的INGREDIENT（只传入新增的shift）
-                    calculateChainRequirements(prefResult, shift, allIngredients, preferredItems, 
-                            requiredAmount, currentAmount, visited);
-                }
-            }
+        CraftingChainSolver solver = new CraftingChainSolver(recipes);
+        CraftingChainSolver.Result result;
+        applyingChainSolution = true;
+        try {
+            result = solver.solve();
+        } finally {
+            applyingChainSolution = false;
         }
         
-        visited.remove(resultItem);
-    }
-    
-    /**
-     * 收集INGREDIENT到RESULT的映射
-     */
-    private void collectPreferredItems(BookmarkItem sourceResult, List<BookmarkItem> allIngredients, 
-            List<BookmarkItem> allResults, java.util.Map<BookmarkItem, BookmarkItem> preferredItems, 
-            Set<BookmarkItem> visited) {
-        
-        if (visited.contains(sourceResult)) return;
-        visited.add(sourceResult);
-        
-        // 找到属于这个RESULT配方的INGREDIENT
-        List<BookmarkItem> recipeIngredients = findRecipeIngredients(sourceResult, allIngredients);
-        
-        for (BookmarkItem ingrItem : recipeIngredients) {
-            if (preferredItems.containsKey(ingrItem)) continue;
-            
-            // 查找能提供这个INGREDIENT的RESULT
-            for (BookmarkItem resultItem : allResults) {
-                if (resultItem == sourceResult) continue;
-                if (visited.contains(resultItem)) continue;
-                
-                // 检查这个RESULT是否能提供这个INGREDIENT（itemKey相同）
-                if (resultItem.getItemKey().equals(ingrItem.getItemKey())) {
-                    preferredItems.put(ingrItem, resultItem);
-                    // 递归收集这个RESULT的配方的INGREDIENT
-                    collectPreferredItems(resultItem, allIngredients, allResults, preferredItems, visited);
-                    break;
-                }
-            }
+        ChainCache cache = new ChainCache(chainGroupIds, parts, links().getVersion(), recipes.size(), solver);
+        for (int memberId : chainGroupIds) {
+            chainSolvers.put(memberId, cache);
         }
-        
-        visited.remove(sourceResult);
-    }
-    
-    /**
-     * 找到属于某个RESULT配方的INGREDIENT（紧跟在RESULT后面的INGREDIENT）
-     */
-    private List<BookmarkItem> findRecipeIngredients(BookmarkItem result, List<BookmarkItem> allIngredients) {
-        List<BookmarkItem> recipeIngredients = new ArrayList<>();
-        List<BookmarkItem> allItems = getAllItems();
-        
-        int resultIndex = allItems.indexOf(result);
-        if (resultIndex < 0) return recipeIngredients;
-        
-        // 收集紧跟在这个RESULT后面的INGREDIENT
-        for (int i = resultIndex + 1; i < allItems.size(); i++) {
-            BookmarkItem item = allItems.get(i);
-            if (item.isOutput()) {
-                // 遇到下一个RESULT，停止
-                break;
-            }
-            if (item.isIngredient() && allIngredients.contains(item)) {
-                recipeIngredients.add(item);
-            }
+        setChainCycleState(chainGroupIds, result);
+        if (!result.converged) {
+            JEIEnhancements.LOGGER.debug("Crafting chain of group {} has a recipe loop that does not converge", groupId);
         }
         
-        return recipeIngredients;
+        markDirty();
     }
     
     /**
@@ -617,7 +1094,6 @@ public class BookmarkManager {
      * 从指定组开始，计算所有关联组的数量
      */
     public void recalculateCraftingChain(int groupId) {
-        // 现在只计算组内的crafting chain
         recalculateCraftingChainInGroup(groupId);
     }
     
@@ -652,7 +1128,7 @@ public class BookmarkManager {
      */
     public void removeGroupOnly(int groupId) {
         if (groupId != DEFAULT_GROUP_ID) {
-            groups.remove(groupId);
+            unregisterGroup(groupId);
             markDirty();
         }
     }
@@ -683,8 +1159,8 @@ public class BookmarkManager {
         // 对于流体和其他类型，尝试获取更稳定的标识符
         String typeUid = ingredient.getType().getUid().toString();
         
-        // 尝试使用反射获取流体/化学物质的注册名称
-        String stableKey = getStableKeyForObject(obj);
+        // 尝试获取流体/化学物质的注册名称（按类缓存解析方式）
+        String stableKey = StableKeyResolver.getStableKey(obj);
         if (stableKey != null) {
             return typeUid + ":" + stableKey;
         }
@@ -693,94 +1169,6 @@ public class BookmarkManager {
         return typeUid + ":" + obj.toString();
     }
     
-    /**
-     * 尝试获取对象的稳定key（用于流体、化学物质等）
-     */
-    private String getStableKeyForObject(Object obj) {
-        try {
-            // 尝试NeoForge FluidStack
-            if (obj.getClass().getName().contains("FluidStack")) {
-                // 尝试获取getFluid().builtInRegistryHolder().key().location()
-                java.lang.reflect.Method getFluid = obj.getClass().getMethod("getFluid");
-                Object fluid = getFluid.invoke(obj);
-                if (fluid != null) {
-                    // 尝试获取注册名称
-                    java.lang.reflect.Method builtInRegistryHolder = fluid.getClass().getMethod("builtInRegistryHolder");
-                    Object holder = builtInRegistryHolder.invoke(fluid);
-                    if (holder != null) {
-                        java.lang.reflect.Method key = holder.getClass().getMethod("key");
-                        Object resourceKey = key.invoke(holder);
-                        if (resourceKey != null) {
-                            java.lang.reflect.Method location = resourceKey.getClass().getMethod("location");
-                            Object loc = location.invoke(resourceKey);
-                            if (loc != null) {
-                                return loc.toString();
-                            }
-                        }
-                    }
-                }
-            }
-            
-            // 尝试Mekanism ChemicalStack
-            if (obj.getClass().getName().contains("ChemicalStack")) {
-                // 尝试获取getType().getRegistryName() 或 getChemical().getRegistryName()
-                java.lang.reflect.Method getChemical = null;
-                try {
-                    getChemical = obj.getClass().getMethod("getChemical");
-                } catch (NoSuchMethodException e) {
-                    try {
-                        getChemical = obj.getClass().getMethod("getType");
-                    } catch (NoSuchMethodException e2) {
-                        // ignore
-                    }
-                }
-                
-                if (getChemical != null) {
-                    Object chemical = getChemical.invoke(obj);
-                    if (chemical != null) {
-                        // 尝试获取注册名称
-                        java.lang.reflect.Method getRegistryName = null;
-                        try {
-                            getRegistryName = chemical.getClass().getMethod("getRegistryName");
-                        } catch (NoSuchMethodException e) {
-                            // 尝试其他方法
-                            try {
-                                // Mekanism 1.21+ 使用不同的API
-                                java.lang.reflect.Method builtInRegistryHolder = chemical.getClass().getMethod("builtInRegistryHolder");
-                                Object holder = builtInRegistryHolder.invoke(chemical);
-                                if (holder != null) {
-                                    java.lang.reflect.Method key = holder.getClass().getMethod("key");
-                                    Object resourceKey = key.invoke(holder);
-                                    if (resourceKey != null) {
-                                        java.lang.reflect.Method location = resourceKey.getClass().getMethod("location");
-                                        Object loc = location.invoke(resourceKey);
-                                        if (loc != null) {
-                                            return loc.toString();
-                                        }
-                                    }
-                                }
-                            } catch (Exception ex) {
-                                // ignore
-                            }
-                        }
-                        
-                        if (getRegistryName != null) {
-                            Object regName = getRegistryName.invoke(chemical);
-                            if (regName != null) {
-                                return regName.toString();
-                            }
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
-            // 反射失败，返回null使用回退方案
-            JEIEnhancements.LOGGER.debug("Failed to get stable key for object: " + obj.getClass().getName(), e);
-        }
-        
-        return null;
-    }
-    
     /**
      * 从ItemStack获取物品key
      */
@@ -799,152 +1187,419 @@ public class BookmarkManager {
         dirty = true;
     }
     
+    /**
+     * 保存书签数据
+     * 使用操作日志时把自上次保存以来的记录交给后台线程，防抖窗口内的多次保存合并为一次追加，日志过长时压缩成新的快照；
+     * 否则在当前线程生成快照，序列化和写文件在后台线程进行，防抖窗口内的多次保存合并为一次写入
+     * 批量修改期间推迟到endBatch()
+     */
     public void save() {
-        if (!dirty) return;
+        if ((!dirty && !journal.isSnapshotRequested()) || batchDepth > 0) return;
         
         try {
-            Path savePath = getSaveFilePath();
-            Files.createDirectories(savePath.getParent());
-            
-            JsonObject root = new JsonObject();
-            root.addProperty("nextGroupId", nextGroupId);
-            
-            // 保存组信息
-            JsonObject groupsObj = new JsonObject();
-            for (Map.Entry<Integer, BookmarkGroup> entry : groups.entrySet()) {
-                JsonObject groupObj = new JsonObject();
-                groupObj.addProperty("expanded", entry.getValue().isExpanded());
-                groupObj.addProperty("craftingChain", entry.getValue().isCraftingChainEnabled());
-                groupObj.addProperty("linkedGroupId", entry.getValue().getLinkedGroupId());
-                groupsObj.add(String.valueOf(entry.getKey()), groupObj);
-            }
-            root.add("groups", groupsObj);
-            
-            // 保存书签项
-            JsonArray itemsArray = new JsonArray();
-            for (BookmarkItem item : bookmarkItems) {
-                JsonObject itemObj = new JsonObject();
-                itemObj.addProperty("groupId", item.getGroupId());
-                itemObj.addProperty("itemKey", item.getItemKey());
-                itemObj.addProperty("factor", item.getFactor());
-                itemObj.addProperty("amount", item.getAmount());
-                itemObj.addProperty("type", item.getType().ordinal());
-                itemsArray.add(itemObj);
+            if (!JOURNAL_ENABLED) {
+                BookmarkSnapshot snapshot = createSnapshot(journal.getGeneration());
+                getSaver().submit(out -> writeSnapshot(snapshot, out));
+            } else if (journal.needsCompaction()) {
+                compact();
+            } else {
+                List<String> lines = journal.drain();
+                if (!lines.isEmpty()) {
+                    JournalFile file = getJournalFile();
+                    file.enqueue(journal.getGeneration(), lines);
+                    getSaver().schedule(() -> writeJournal(file));
+                }
             }
-            root.add("items", itemsArray);
-            
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            Files.writeString(savePath, gson.toJson(root), StandardCharsets.UTF_8);
-            
             dirty = false;
-
         } catch (Exception e) {
             JEIEnhancements.LOGGER.error("Failed to save bookmark data", e);
         }
     }
     
+    /**
+     * 把当前状态写成新一代的快照，然后清空日志
+     * 两步在同一个后台线程上按顺序执行。任一步失败时日志文件保持旧的代数，
+     * 属于新一代的记录不会追加到旧日志里，下次保存重新写快照
+     */
+    private void compact() {
+        long generation = journal.startGeneration();
+        BookmarkSnapshot snapshot = createSnapshot(generation);
+        Path savePath = getSaveFilePath();
+        JournalFile file = getJournalFile();
+        getSaver().execute(() -> {
+            try {
+                DebouncedFileWriter.writeAtomically(savePath, out -> writeSnapshot(snapshot, out));
+                file.reset(generation);
+            } catch (IOException e) {
+                journal.requestSnapshot();
+                throw e;
+            }
+            // 写出在快照之后产生的记录
+            writeJournal(file);
+        });
+    }
+    
+    /**
+     * 在后台线程上追加排队的日志记录，失败时下次保存重新写快照
+     */
+    private void writeJournal(JournalFile file) throws IOException {
+        try {
+            file.writeQueued();
+        } catch (IOException e) {
+            journal.requestSnapshot();
+            throw e;
+        }
+    }
+    
+    /**
+     * 保存并等待所有后台写入完成（退出时调用）
+     */
+    public void flush() {
+        save();
+        if (saver != null) {
+            JournalFile file = journalFile;
+            if (file != null) {
+                saver.execute(file::sync);
+            }
+            saver.flush();
+            
+            // 后台写入失败时再写一次快照
+            if (journal.isSnapshotRequested()) {
+                save();
+                saver.flush();
+            }
+        }
+    }
+    
+    private DebouncedFileWriter getSaver() {
+        if (saver == null) {
+            saver = new DebouncedFileWriter(getSaveFilePath(), "JEI Enhancements Bookmark Saver");
+        }
+        return saver;
+    }
+    
+    private JournalFile getJournalFile() {
+        if (journalFile == null) {
+            journalFile = new JournalFile(getSaveFilePath().resolveSibling(JOURNAL_FILE_NAME));
+        }
+        return journalFile;
+    }
+    
+    /**
+     * 按当前存档格式写出快照
+     */
+    private static void writeSnapshot(BookmarkSnapshot snapshot, OutputStream out) throws IOException {
+        if (BINARY_FORMAT) {
+            BookmarkBinaryFormat.write(snapshot, out, COMPRESS_SAVE);
+        } else {
+            BookmarkJsonFormat.write(snapshot, out);
+        }
+    }
+    
+    /**
+     * 导出为JSON（与旧版本的jei_enhancements_bookmarks.json格式相同），由/jei_enhancements export命令调用
+     */
+    public void exportJson(Path path) throws IOException {
+        ensureLoaded();
+        BookmarkSnapshot snapshot = createSnapshot(journal.getGeneration());
+        DebouncedFileWriter.writeAtomically(path, out -> BookmarkJsonFormat.write(snapshot, out));
+    }
+    
+    /**
+     * 生成当前状态的不可变快照
+     */
+    private BookmarkSnapshot createSnapshot(long generation) {
+        List<BookmarkSnapshot.Group> groupStates = new ArrayList<>(groups.size());
+        for (BookmarkGroup group : groups.values()) {
+            groupStates.add(new BookmarkSnapshot.Group(group));
+        }
+        
+        List<BookmarkSnapshot.Item> itemStates = new ArrayList<>(bookmarkItems.size());
+        for (BookmarkItem item : bookmarkItems) {
+            itemStates.add(new BookmarkSnapshot.Item(item));
+        }
+        
+        return new BookmarkSnapshot(generation, nextGroupId, groupStates, itemStates);
+    }
+    
     public void load() {
+        // 先写出尚未写出的数据，避免读到旧文件
+        if (saver != null) {
+            saver.flush();
+        }
+        
         try {
-            Path savePath = getSaveFilePath();
-            if (!Files.exists(savePath)) {
+            Path savePath = findSaveFile();
+            if (savePath == null) {
                 loaded = true;
                 return;
             }
             
-            String json = Files.readString(savePath, StandardCharsets.UTF_8);
-            JsonObject root = JsonParser.parseString(json).getAsJsonObject();
-            
-            // 清除现有数据
-            bookmarkItems.clear();
-            groups.clear();
-            jeiBookmarkMap.clear();
-            groups.put(DEFAULT_GROUP_ID, new BookmarkGroup(DEFAULT_GROUP_ID));
+            // 读到的不是当前格式的存档（例如旧版本的JSON），读完后按当前格式重新保存
+            boolean migrated = !savePath.equals(getSaveFilePath());
+            LoadSink sink = readSnapshot(savePath, savePath.getFileName().toString().equals(SAVE_FILE_NAME));
+            long generation = sink.generation;
             
-            if (root.has("nextGroupId")) {
-                nextGroupId = root.get("nextGroupId").getAsInt();
+            // 在快照上回放操作日志
+            int replayed = 0;
+            boolean journalValid = false;
+            if (JOURNAL_ENABLED && sink.idsValid) {
+                List<String> entries = getJournalFile().read(generation);
+                replayed = replayJournal(entries);
+                journalValid = replayed == entries.size() && getJournalFile().getGeneration() == generation;
             }
             
-            // 加载组信息
-            if (root.has("groups")) {
-                JsonObject groupsObj = root.getAsJsonObject("groups");
-                for (Map.Entry<String, JsonElement> entry : groupsObj.entrySet()) {
-                    int groupId = Integer.parseInt(entry.getKey());
-                    JsonObject groupObj = entry.getValue().getAsJsonObject();
-                    
-                    BookmarkGroup group = new BookmarkGroup(groupId);
-                    if (groupObj.has("multiplier")) {
-                        group.setMultiplier(groupObj.get("multiplier").getAsDouble());
-                    }
-                    if (groupObj.has("expanded")) {
-                        group.setExpanded(groupObj.get("expanded").getAsBoolean());
-                    }
-                    if (groupObj.has("craftingChain")) {
-                        group.setCraftingChainEnabled(groupObj.get("craftingChain").getAsBoolean());
-                    }
-                    if (groupObj.has("linkedGroupId")) {
-                        group.setLinkedGroupId(groupObj.get("linkedGroupId").getAsInt());
-                    }
-                    groups.put(groupId, group);
-                }
+            // 迁移时下次保存需要按当前格式写出完整快照
+            if (migrated) {
+                JEIEnhancements.LOGGER.info("Migrating bookmark data from {} to {}", savePath.getFileName(), getSaveFilePath().getFileName());
+                journalValid = false;
             }
+            journal.onLoaded(generation, replayed, journalValid);
             
-            // 加载书签项
-            if (root.has("items")) {
-                JsonArray itemsArray = root.getAsJsonArray("items");
-                for (JsonElement elem : itemsArray) {
-                    JsonObject itemObj = elem.getAsJsonObject();
-                    int groupId = itemObj.get("groupId").getAsInt();
-                    String itemKey = itemObj.get("itemKey").getAsString();
-                    
-                    // 兼容旧版本：优先使用factor，否则使用baseQuantity
-                    long factor = 1;
-                    if (itemObj.has("factor")) {
-                        factor = itemObj.get("factor").getAsLong();
-                    } else if (itemObj.has("baseQuantity")) {
-                        factor = itemObj.get("baseQuantity").getAsInt();
-                    }
-                    
-                    BookmarkItem.BookmarkItemType type = BookmarkItem.BookmarkItemType.values()[
-                            itemObj.get("type").getAsInt()];
-                    
-                    BookmarkItem item = new BookmarkItem(groupId, itemKey, factor, type);
-                    
-                    // 加载amount
-                    if (itemObj.has("amount")) {
-                        item.setAmount(itemObj.get("amount").getAsLong());
-                    }
-                    
-                    bookmarkItems.add(item);
-                }
-            }
-            
-            dirty = false;
+            dirty = migrated || (JOURNAL_ENABLED && !journalValid);
             loaded = true;
 
         } catch (Exception e) {
             JEIEnhancements.LOGGER.error("Failed to load bookmark data", e);
+            journal.invalidate();
             loaded = true;
+        } finally {
+            journal.setSuspended(false);
+        }
+    }
+    
+    /**
+     * 读取存档，完整解析后才替换现有数据（暂停记录操作日志，由调用方恢复）
+     * 文件损坏或不完整时抛出异常，现有数据保持不变
+     */
+    private LoadSink readSnapshot(Path path, boolean binary) throws IOException {
+        journal.setSuspended(true);
+        
+        LoadSink sink = new LoadSink();
+        if (binary) {
+            try (InputStream in = Files.newInputStream(path)) {
+                BookmarkBinaryFormat.read(in, sink);
+            }
+        } else {
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                BookmarkJsonFormat.read(reader, sink);
+            }
+        }
+        
+        // 清除现有数据
+        detachAll();
+        clearGroups();
+        jeiBookmarkMap.clear();
+        version++;
+        registerGroup(new BookmarkGroup(DEFAULT_GROUP_ID));
+        
+        sink.apply();
+        return sink;
+    }
+    
+    /**
+     * 收集读取到的数据，文件解析完成后由apply()加入BookmarkManager
+     */
+    private class LoadSink implements BookmarkDataSink {
+        long generation = 0;
+        
+        // 保存的id是否可用（旧版本的文件没有id，按顺序分配，此时日志无法对应，需要重新写快照）
+        boolean idsValid = true;
+        
+        @Nullable
+        private Integer nextGroupId = null;
+        private final List<BookmarkGroup> groups = new ArrayList<>();
+        private final List<BookmarkItem> items = new ArrayList<>();
+        private final List<Long> ids = new ArrayList<>();
+        
+        @Override
+        public void generation(long generation) {
+            this.generation = generation;
+        }
+        
+        @Override
+        public void nextGroupId(int nextGroupId) {
+            this.nextGroupId = nextGroupId;
+        }
+        
+        @Override
+        public void group(BookmarkGroup group) {
+            groups.add(group);
+        }
+        
+        @Override
+        public void item(BookmarkItem item, long id) {
+            items.add(item);
+            ids.add(id);
+        }
+        
+        /**
+         * 把读取到的数据加入BookmarkManager（现有数据已清除）
+         */
+        void apply() {
+            if (nextGroupId != null) {
+                BookmarkManager.this.nextGroupId = nextGroupId;
+            }
+            for (BookmarkGroup group : groups) {
+                registerGroup(group);
+            }
+            for (int i = 0; i < items.size(); i++) {
+                long id = ids.get(i);
+                if (id < nextSequence) {
+                    id = nextSequence;
+                    idsValid = false;
+                }
+                addToIndex(items.get(i), id);
+            }
+        }
+    }
+    
+    /**
+     * 按顺序回放日志记录，遇到无法解析的记录（例如写到一半的最后一行）时停止
+     * @return 成功回放的记录数
+     */
+    private int replayJournal(List<String> entries) {
+        Map<Long, BookmarkItem> itemsById = new HashMap<>();
+        for (BookmarkItem item : bookmarkItems) {
+            itemsById.put(item.getSequence(), item);
+        }
+        
+        int replayed = 0;
+        for (String line : entries) {
+            try {
+                applyJournalEntry(JsonParser.parseString(line).getAsJsonObject(), itemsById);
+            } catch (Exception e) {
+                JEIEnhancements.LOGGER.warn("Stopped replaying bookmark journal at entry {}: {}", replayed, e.toString());
+                break;
+            }
+            replayed++;
+        }
+        return replayed;
+    }
+    
+    private void applyJournalEntry(JsonObject entry, Map<Long, BookmarkItem> itemsById) {
+        String op = entry.get("op").getAsString();
+        switch (op) {
+            case BookmarkJournal.OP_ADD -> {
+                int groupId = entry.get("groupId").getAsInt();
+                if (!groups.containsKey(groupId)) {
+                    registerGroup(new BookmarkGroup(groupId));
+                }
+                BookmarkItem item = new BookmarkItem(groupId, entry.get("itemKey").getAsString(),
+                        entry.get("factor").getAsLong(),
+                        BookmarkItem.BookmarkItemType.values()[entry.get("type").getAsInt()]);
+                item.setAmount(entry.get("amount").getAsLong());
+                long id = entry.get("id").getAsLong();
+                if (id < nextSequence) {
+                    throw new IllegalStateException("Bookmark id " + id + " is not increasing");
+                }
+                addToIndex(item, id);
+                itemsById.put(id, item);
+            }
+            case BookmarkJournal.OP_REMOVE -> {
+                BookmarkItem item = itemsById.remove(entry.get("id").getAsLong());
+                if (item != null) {
+                    removeFromIndex(item);
+                }
+            }
+            case BookmarkJournal.OP_AMOUNT -> {
+                BookmarkItem item = itemsById.get(entry.get("id").getAsLong());
+                if (item != null) {
+                    item.setAmount(entry.get("amount").getAsLong());
+                }
+            }
+            case BookmarkJournal.OP_REGROUP -> {
+                BookmarkItem item = itemsById.get(entry.get("id").getAsLong());
+                int groupId = entry.get("groupId").getAsInt();
+                if (item != null) {
+                    if (!groups.containsKey(groupId)) {
+                        registerGroup(new BookmarkGroup(groupId));
+                    }
+                    item.setGroupId(groupId);
+                }
+            }
+            case BookmarkJournal.OP_TYPE -> {
+                BookmarkItem item = itemsById.get(entry.get("id").getAsLong());
+                if (item != null) {
+                    item.setType(BookmarkItem.BookmarkItemType.values()[entry.get("type").getAsInt()]);
+                }
+            }
+            case BookmarkJournal.OP_GROUP -> {
+                int groupId = entry.get("groupId").getAsInt();
+                BookmarkGroup group = groups.get(groupId);
+                if (group == null) {
+                    group = new BookmarkGroup(groupId);
+                    registerGroup(group);
+                }
+                group.setExpanded(entry.get("expanded").getAsBoolean());
+                group.setCraftingChainEnabled(entry.get("craftingChain").getAsBoolean());
+                group.setLinkedGroupId(entry.get("linkedGroupId").getAsInt());
+                nextGroupId = Math.max(nextGroupId, groupId + 1);
+            }
+            case BookmarkJournal.OP_REMOVE_GROUP -> {
+                int groupId = entry.get("groupId").getAsInt();
+                if (groupId != DEFAULT_GROUP_ID) {
+                    unregisterGroup(groupId);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown bookmark journal op: " + op);
         }
     }
     
     private Path getSaveFilePath() {
+        return getConfigPath(BINARY_FORMAT ? SAVE_FILE_NAME : JSON_FILE_NAME);
+    }
+    
+    private Path getConfigPath(String fileName) {
         Minecraft mc = Minecraft.getInstance();
-        return mc.gameDirectory.toPath().resolve("config").resolve(SAVE_FILE_NAME);
+        return mc.gameDirectory.toPath().resolve("config").resolve(fileName);
+    }
+    
+    /**
+     * 查找要加载的存档：两种格式都存在时使用较新的那个
+     */
+    @Nullable
+    private Path findSaveFile() throws IOException {
+        Path primary = getSaveFilePath();
+        Path other = getConfigPath(BINARY_FORMAT ? JSON_FILE_NAME : SAVE_FILE_NAME);
+        if (!Files.exists(other)) {
+            return Files.exists(primary) ? primary : null;
+        }
+        if (!Files.exists(primary)) {
+            return other;
+        }
+        return Files.getLastModifiedTime(other).compareTo(Files.getLastModifiedTime(primary)) > 0 ? other : primary;
     }
     
     /**
      * 清除所有数据
      */
     public void clearAll() {
-        bookmarkItems.clear();
-        groups.clear();
+        detachAll();
+        clearGroups();
         jeiBookmarkMap.clear();
-        groups.put(DEFAULT_GROUP_ID, new BookmarkGroup(DEFAULT_GROUP_ID));
+        version++;
+        registerGroup(new BookmarkGroup(DEFAULT_GROUP_ID));
         nextGroupId = 1;
+        journal.invalidate();
         loaded = false;
         markDirty();
     }
     
+    /**
+     * 清空所有书签项及组索引
+     */
+    private void detachAll() {
+        version++;
+        for (BookmarkItem item : bookmarkItems) {
+            item.detach();
+        }
+        bookmarkItems.clear();
+        groupIndex.clear();
+        unlinkedItems.clear();
+        nextSequence = 0;
+    }
+    
     /**
      * 将多个书签项合并到一个组
      * 如果这些书签项已经在同一个组中，不做任何操作
@@ -979,24 +1634,18 @@ public class BookmarkManager {
         }
         
         // 将所有项移动到目标组
+        Set<Integer> oldGroupIds = new HashSet<>();
         for (BookmarkItem item : items) {
             if (item.getGroupId() != targetGroupId) {
-                int oldGroupId = item.getGroupId();
+                oldGroupIds.add(item.getGroupId());
                 item.setGroupId(targetGroupId);
-                
-                // 如果旧组变空了，删除它
-                if (oldGroupId != DEFAULT_GROUP_ID) {
-                    boolean hasOtherItems = false;
-                    for (BookmarkItem other : bookmarkItems) {
-                        if (other.getGroupId() == oldGroupId && !items.contains(other)) {
-                            hasOtherItems = true;
-                            break;
-                        }
-                    }
-                    if (!hasOtherItems) {
-                        groups.remove(oldGroupId);
-                    }
-                }
+            }
+        }
+        
+        // 如果旧组变空了，删除它
+        for (int oldGroupId : oldGroupIds) {
+            if (oldGroupId != DEFAULT_GROUP_ID && getGroupSize(oldGroupId) == 0) {
+                unregisterGroup(oldGroupId);
             }
         }
         
@@ -1026,13 +1675,13 @@ public class BookmarkManager {
         // 检查旧组是否还有其他项
         List<BookmarkItem> remainingItems = getGroupItems(oldGroupId);
         if (remainingItems.isEmpty()) {
-            groups.remove(oldGroupId);
+            unregisterGroup(oldGroupId);
         } else if (remainingItems.size() == 1) {
             // 只剩一个项，也移到默认组
             BookmarkItem lastItem = remainingItems.get(0);
             lastItem.setGroupId(DEFAULT_GROUP_ID);
             lastItem.setType(BookmarkItem.BookmarkItemType.ITEM);
-            groups.remove(oldGroupId);
+            unregisterGroup(oldGroupId);
         }
         
         markDirty();
@@ -0,0 +1,315 @@
+package com.gali.jei_enhancements.bookmark;
+
+import mezz.jei.gui.bookmarks.IBookmark;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * JEI书签列表的按引用索引
+ *
+ * 同一物品可以有多个相等（equals）的书签实例，JEI的列表只能按引用逐个比较才能找到某个实例。
+ * 这里给每个实例分配一个按列表顺序递增的标签，标签之间留有空隙，
+ * 用树状数组（Fenwick树）统计标签之前还存在的实例数，从而得到实例在列表中的位置：
+ * - 查找位置、删除：O(log n)
+ * - 添加到末尾：标签取最后一个标签加GAP，超出树的大小时扩容（按1.5倍增长，均摊O(1)）
+ * - 添加到开头：标签取第一个标签减GAP，重建时在开头预留约n/4个位置
+ * - 在中间插入（移动书签）：取前后两个标签的中点，没有空隙时下次使用前重建
+ * 另外按equals统计每种书签的实例数，最后一个实例删除时才从JEI的bookmarksSet中移除。
+ *
+ * JEI添加书签后调用onAdded()记录新实例；列表被JEI以其他方式修改（从配置文件加载等）后需要调用invalidate()，
+ * 下次使用时按列表重建。
+ * 列表本身的插入删除仍由JEI的List（ArrayList）完成，移动元素的开销仍是O(n)，这里只省去按引用查找的线性扫描。
+ */
+public class BookmarkOrderIndex {
+
+    // 相邻标签的间隔，留给中间插入使用
+    private static final int GAP = 16;
+
+    private static final int MIN_CAPACITY = 64;
+
+    // 实例 -> 标签
+    private final Map<IBookmark, Integer> labels = new IdentityHashMap<>();
+
+    // 按equals统计的实例数
+    private final Map<IBookmark, Integer> equalCounts = new HashMap<>();
+
+    // 树状数组，下标为标签（从1开始）
+    private int[] tree = new int[MIN_CAPACITY + 1];
+    private int lastLabel = 0;
+
+    private boolean valid = false;
+
+    // 列表中有重复的同一实例时无法按引用索引，退回线性查找
+    private boolean consistent = true;
+
+    /**
+     * 列表被外部修改后调用，下次使用时重建
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * JEI把书签添加到列表开头或末尾之后调用，记录新实例
+     * 索引无效或新实例不在两端时改为下次使用前重建
+     */
+    public void onAdded(IBookmark bookmark, List<IBookmark> list) {
+        if (!valid || !consistent || list.isEmpty() || labels.containsKey(bookmark)) {
+            valid = false;
+            return;
+        }
+
+        int index;
+        if (list.get(list.size() - 1) == bookmark) {
+            index = list.size() - 1;
+        } else if (list.get(0) == bookmark) {
+            index = 0;
+        } else {
+            valid = false;
+            return;
+        }
+
+        if (record(bookmark, index, list)) {
+            equalCounts.merge(bookmark, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * 按引用查找书签在列表中的位置，不存在时返回-1
+     */
+    public int indexOf(IBookmark bookmark, List<IBookmark> list) {
+        ensureValid(list);
+        if (!consistent) {
+            return linearIndexOf(bookmark, list);
+        }
+
+        Integer label = labels.get(bookmark);
+        return label != null ? prefixSum(label) - 1 : -1;
+    }
+
+    /**
+     * 按引用删除书签，同时在没有其他相等实例时从集合中移除
+     * @return 是否从列表中删除
+     */
+    public boolean remove(IBookmark bookmark, List<IBookmark> list, Set<IBookmark> set) {
+        if (!removeFromList(bookmark, list)) {
+            return false;
+        }
+        decrementCount(bookmark, set);
+        return true;
+    }
+
+    /**
+     * 按引用批量删除书签，列表只遍历一次（null会被忽略）
+     * @return 是否删除了任何书签
+     */
+    public boolean removeAll(Collection<IBookmark> bookmarks, List<IBookmark> list, Set<IBookmark> set) {
+        ensureValid(list);
+
+        Set<IBookmark> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (IBookmark bookmark : bookmarks) {
+            if (bookmark == null) continue;
+            if (!consistent) {
+                removed.add(bookmark);
+                continue;
+            }
+            Integer label = labels.remove(bookmark);
+            if (label != null) {
+                add(label, -1);
+                removed.add(bookmark);
+            }
+        }
+        if (removed.isEmpty()) {
+            return false;
+        }
+
+        boolean anyRemoved = list.removeIf(removed::contains);
+        for (IBookmark bookmark : removed) {
+            decrementCount(bookmark, set);
+        }
+        if (!consistent) {
+            valid = false;
+        }
+        return anyRemoved;
+    }
+
+    /**
+     * 把书签移动到新位置（先按引用删除，再插入到删除后列表的newIndex处），不改变集合
+     */
+    public void move(IBookmark bookmark, int newIndex, List<IBookmark> list) {
+        if (removeFromList(bookmark, list)) {
+            insert(bookmark, newIndex, list);
+        }
+    }
+
+    /**
+     * 在列表的index处插入书签并分配标签
+     */
+    private void insert(IBookmark bookmark, int index, List<IBookmark> list) {
+        list.add(index, bookmark);
+        if (valid && consistent) {
+            record(bookmark, index, list);
+        } else {
+            valid = false;
+        }
+    }
+
+    /**
+     * 为已经位于列表index处的书签分配标签
+     * @return 是否成功，没有可用的标签时改为下次使用前重建
+     */
+    private boolean record(IBookmark bookmark, int index, List<IBookmark> list) {
+        Integer previous = index > 0 ? labels.get(list.get(index - 1)) : Integer.valueOf(0);
+        Integer next = index + 1 < list.size() ? labels.get(list.get(index + 1)) : null;
+        if (previous == null) {
+            valid = false;
+            return false;
+        }
+
+        int label;
+        if (next == null) {
+            // 插入到末尾
+            label = Math.max(previous, lastLabel) + GAP;
+            if (label >= tree.length) {
+                grow(label);
+            }
+            lastLabel = label;
+        } else if (previous == 0 && next > GAP) {
+            // 插入到开头，使用预留的位置
+            label = next - GAP;
+        } else if (next - previous > 1) {
+            label = (previous + next) >>> 1;
+        } else {
+            // 没有空隙了，下次使用时重新分配
+            valid = false;
+            return false;
+        }
+
+        labels.put(bookmark, label);
+        add(label, 1);
+        return true;
+    }
+
+    /**
+     * 扩大树状数组，使label可用
+     */
+    private void grow(int label) {
+        int capacity = Math.max(label, tree.length + (tree.length >> 1));
+        tree = new int[capacity + 1];
+        for (int existing : labels.values()) {
+            tree[existing] = 1;
+        }
+        build();
+    }
+
+    private boolean removeFromList(IBookmark bookmark, List<IBookmark> list) {
+        ensureValid(list);
+        if (!consistent) {
+            int index = linearIndexOf(bookmark, list);
+            if (index < 0) {
+                return false;
+            }
+            list.remove(index);
+            valid = false;
+            return true;
+        }
+
+        Integer label = labels.remove(bookmark);
+        if (label == null) {
+            return false;
+        }
+
+        int index = prefixSum(label) - 1;
+        add(label, -1);
+        if (index < 0 || index >= list.size() || list.get(index) != bookmark) {
+            // 索引与列表不一致（列表被外部修改但没有通知），按引用查找后重建
+            index = linearIndexOf(bookmark, list);
+            valid = false;
+            if (index < 0) {
+                return false;
+            }
+        }
+        list.remove(index);
+        return true;
+    }
+
+    private void decrementCount(IBookmark bookmark, Set<IBookmark> set) {
+        Integer count = equalCounts.get(bookmark);
+        if (count == null || count <= 1) {
+            equalCounts.remove(bookmark);
+            set.remove(bookmark);
+        } else {
+            equalCounts.put(bookmark, count - 1);
+        }
+    }
+
+    private void ensureValid(List<IBookmark> list) {
+        if (valid) {
+            return;
+        }
+
+        int size = list.size();
+
+        // 开头预留约n/4个位置给添加到开头的书签，末尾同样留出一些，之后按需扩容
+        int front = (size / 4 + 1) * GAP;
+        int capacity = Math.max(MIN_CAPACITY, front + size * GAP + (size / 4 + 1) * GAP);
+
+        labels.clear();
+        equalCounts.clear();
+        tree = new int[capacity + 1];
+        for (int i = 0; i < size; i++) {
+            IBookmark bookmark = list.get(i);
+            int label = front + i * GAP;
+            labels.put(bookmark, label);
+            equalCounts.merge(bookmark, 1, Integer::sum);
+            tree[label] = 1;
+        }
+        build();
+
+        lastLabel = size > 0 ? front + (size - 1) * GAP : 0;
+        consistent = labels.size() == size;
+        valid = true;
+    }
+
+    /**
+     * 由每个位置的计数线性时间建树
+     */
+    private void build() {
+        int capacity = tree.length - 1;
+        for (int i = 1; i <= capacity; i++) {
+            int parent = i + (i & -i);
+            if (parent <= capacity) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+
+    private void add(int label, int delta) {
+        for (int i = label; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    private int prefixSum(int label) {
+        int sum = 0;
+        for (int i = label; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    private static int linearIndexOf(IBookmark bookmark, List<IBookmark> list) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == bookmark) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
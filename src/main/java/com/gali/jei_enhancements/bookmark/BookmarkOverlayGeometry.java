@@ -0,0 +1,208 @@
+package com.gali.jei_enhancements.bookmark;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 书签覆盖层的几何信息（分组背景矩形、每行所属的组、组括号及颜色）
+ *
+ * 只在发生变化时重建：BookmarkSlotTable重新解析槽位（翻页、布局、书签数据变化）
+ * 或网格尺寸变化时调用invalidate()，之后第一次读取时重新计算。
+ * 其余帧直接使用保存的数组，不再构建Map或装箱。
+ */
+public class BookmarkOverlayGeometry {
+
+    private static final BookmarkOverlayGeometry INSTANCE = new BookmarkOverlayGeometry();
+
+    private static final int[] EMPTY = new int[0];
+
+    // 网格位置和尺寸（垂直布局时由GroupingDragHandler更新）
+    private int gridX = 0;
+    private int gridY = 0;
+    private int columns = 1;
+    private int rows = 1;
+
+    // 分组背景，每个矩形4个int：minX, minY, maxX, maxY
+    private int[] backgrounds = EMPTY;
+    private int backgroundCount = 0;
+    private boolean backgroundsValid = false;
+
+    // 每行第一个书签项所在的组，没有书签项的行为DEFAULT_GROUP_ID
+    private int[] rowGroupIds = EMPTY;
+
+    // 组括号，每段3个int：startRow, endRow, color
+    private int[] brackets = EMPTY;
+    private int bracketCount = 0;
+    private boolean bracketsValid = false;
+
+    public static BookmarkOverlayGeometry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 标记几何信息失效，下次读取时重新计算
+     */
+    public void invalidate() {
+        backgroundsValid = false;
+        bracketsValid = false;
+    }
+
+    /**
+     * 更新网格位置和尺寸，变化时使几何信息失效
+     */
+    public void setGrid(int x, int y, int columns, int rows) {
+        if (gridX != x || gridY != y || this.columns != columns || this.rows != rows) {
+            gridX = x;
+            gridY = y;
+            this.columns = columns;
+            this.rows = rows;
+            invalidate();
+        }
+    }
+
+    public int getBackgroundCount() {
+        ensureBackgrounds();
+        return backgroundCount;
+    }
+
+    /**
+     * 分组背景数组，第i个矩形位于[i * 4, i * 4 + 4)
+     */
+    public int[] getBackgrounds() {
+        ensureBackgrounds();
+        return backgrounds;
+    }
+
+    /**
+     * 每行所属的组（长度为行数，只读）
+     */
+    public int[] getRowGroupIds() {
+        ensureBrackets();
+        return rowGroupIds;
+    }
+
+    public int getBracketCount() {
+        ensureBrackets();
+        return bracketCount;
+    }
+
+    /**
+     * 组括号数组，第i段位于[i * 3, i * 3 + 3)
+     */
+    public int[] getBrackets() {
+        ensureBrackets();
+        return brackets;
+    }
+
+    private void ensureBackgrounds() {
+        if (backgroundsValid) return;
+
+        BookmarkManager manager = BookmarkManager.getInstance();
+        BookmarkSlotTable table = BookmarkSlotTable.getInstance();
+        Map<Integer, Integer> groupToRect = new HashMap<>();
+        int count = 0;
+        int[] rects = backgrounds;
+
+        for (int i = 0; i < table.size(); i++) {
+            BookmarkItem item = table.getItem(i);
+            if (item == null) continue;
+
+            int groupId = item.getGroupId();
+            // 只有非默认组且组内有多个物品才显示背景
+            if (groupId == BookmarkManager.DEFAULT_GROUP_ID || manager.getGroupSize(groupId) <= 1) continue;
+
+            var area = table.getSlot(i).getRenderArea();
+            Integer index = groupToRect.get(groupId);
+            if (index == null) {
+                index = count++;
+                groupToRect.put(groupId, index);
+                if (rects.length < count * 4) {
+                    rects = Arrays.copyOf(rects, Math.max(count * 4, rects.length * 2));
+                }
+                int base = index * 4;
+                rects[base] = area.x();
+                rects[base + 1] = area.y();
+                rects[base + 2] = area.x() + area.width();
+                rects[base + 3] = area.y() + area.height();
+            } else {
+                int base = index * 4;
+                rects[base] = Math.min(rects[base], area.x());
+                rects[base + 1] = Math.min(rects[base + 1], area.y());
+                rects[base + 2] = Math.max(rects[base + 2], area.x() + area.width());
+                rects[base + 3] = Math.max(rects[base + 3], area.y() + area.height());
+            }
+        }
+
+        backgrounds = rects;
+        backgroundCount = count;
+        backgroundsValid = true;
+    }
+
+    private void ensureBrackets() {
+        if (bracketsValid) return;
+
+        BookmarkSlotTable table = BookmarkSlotTable.getInstance();
+        if (rowGroupIds.length != rows) {
+            rowGroupIds = new int[rows];
+        }
+        for (int row = 0; row < rows; row++) {
+            rowGroupIds[row] = BookmarkManager.DEFAULT_GROUP_ID;
+            int end = Math.min((row + 1) * columns, table.size());
+            for (int i = row * columns; i < end; i++) {
+                BookmarkItem item = table.getItem(i);
+                if (item != null) {
+                    rowGroupIds[row] = item.getGroupId();
+                    break;
+                }
+            }
+        }
+
+        brackets = computeBrackets(rowGroupIds, brackets);
+        bracketCount = countBrackets(rowGroupIds);
+        bracketsValid = true;
+    }
+
+    /**
+     * 计算组括号：每个连续的非默认组行范围画一段，颜色由组的状态决定
+     * @param buffer 可复用的数组，长度不够时重新分配
+     */
+    static int[] computeBrackets(int[] rowGroupIds, int[] buffer) {
+        int count = countBrackets(rowGroupIds);
+        int[] result = buffer.length >= count * 3 ? buffer : new int[count * 3];
+        BookmarkManager manager = BookmarkManager.getInstance();
+
+        int index = 0;
+        int start = -1;
+        for (int row = 0; row <= rowGroupIds.length; row++) {
+            int groupId = row < rowGroupIds.length ? rowGroupIds[row] : BookmarkManager.DEFAULT_GROUP_ID;
+            if (start != -1 && groupId != rowGroupIds[start]) {
+                // 结束当前子组
+                result[index++] = start;
+                result[index++] = row - 1;
+                result[index++] = GroupingDragHandler.getBracketColor(manager, rowGroupIds[start]);
+                start = -1;
+            }
+            if (start == -1 && groupId != BookmarkManager.DEFAULT_GROUP_ID) {
+                // 开始新的子组
+                start = row;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 组括号的段数
+     */
+    static int countBrackets(int[] rowGroupIds) {
+        int count = 0;
+        int previous = BookmarkManager.DEFAULT_GROUP_ID;
+        for (int groupId : rowGroupIds) {
+            if (groupId != BookmarkManager.DEFAULT_GROUP_ID && groupId != previous) {
+                count++;
+            }
+            previous = groupId;
+        }
+        return count;
+    }
+}
@@ -1,21 +1,16 @@
 package com.gali.jei_enhancements.bookmark;
 
-import mezz.jei.api.ingredients.ITypedIngredient;
-import mezz.jei.gui.bookmarks.BookmarkList;
+import com.gali.jei_enhancements.ingredient.IngredientKindRegistry;
 import mezz.jei.gui.bookmarks.IBookmark;
 import mezz.jei.gui.bookmarks.IngredientBookmark;
-import mezz.jei.gui.overlay.IngredientGridWithNavigation;
 import mezz.jei.gui.overlay.IngredientListSlot;
-import mezz.jei.gui.overlay.elements.IElement;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.Font;
 import net.minecraft.client.gui.GuiGraphics;
 import net.minecraft.client.gui.screens.Screen;
-import net.minecraft.world.item.ItemStack;
-
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Optional;
+import net.minecraft.client.renderer.LightTexture;
+import net.minecraft.client.renderer.MultiBufferSource;
+import org.joml.Matrix4f;
 
 /**
  * 渲染书签的自定义数量和背景色
@@ -30,99 +25,68 @@ public class BookmarkQuantityRenderer {
     // Ctrl按下时的颜色
     private static final int RESULT_BG_COLOR = 0x604040FF;     // 组头背景色（蓝色半透明）
     private static final int INGREDIENT_BG_COLOR = 0x60AA40AA; // 组员背景色（紫色半透明）
-
-    /**
-     * 分组渲染信息
-     */
-    private static class GroupRenderInfo {
-        int minX = Integer.MAX_VALUE;
-        int minY = Integer.MAX_VALUE;
-        int maxX = Integer.MIN_VALUE;
-        int maxY = Integer.MIN_VALUE;
-        int slotCount = 0;
-        
-        void addSlot(int x, int y, int width, int height) {
-            minX = Math.min(minX, x);
-            minY = Math.min(minY, y);
-            maxX = Math.max(maxX, x + width);
-            maxY = Math.max(maxY, y + height);
-            slotCount++;
-        }
-    }
+    
+    // 数量文字缩放0.5倍
+    private static final float TEXT_SCALE = 0.5f;
 
     /**
      * 渲染所有书签的自定义数量和分组效果
+     * 槽位对应的书签项由BookmarkSlotTable解析，各步骤不再重复查找
      */
-    public static void renderQuantities(GuiGraphics guiGraphics, IngredientGridWithNavigation contents, BookmarkList bookmarkList) {
+    public static void renderQuantities(GuiGraphics guiGraphics, BookmarkSlotTable table) {
         BookmarkManager manager = BookmarkManager.getInstance();
         
         // 如果没有任何书签项，不需要渲染
-        if (manager.getAllItems().isEmpty()) {
+        if (manager.getItemCount() == 0) {
             return;
         }
         
         Font font = Minecraft.getInstance().font;
+        int size = table.size();
+        
+        // 第一遍：渲染分组背景（几何信息只在布局或书签数据变化时重新计算）
+        BookmarkOverlayGeometry geometry = BookmarkOverlayGeometry.getInstance();
+        int[] backgrounds = geometry.getBackgrounds();
+        for (int i = 0, count = geometry.getBackgroundCount(); i < count; i++) {
+            int base = i * 4;
+            renderGroupBackground(guiGraphics, backgrounds[base], backgrounds[base + 1], backgrounds[base + 2], backgrounds[base + 3]);
+        }
         
-        // 第一遍：收集分组信息
-        Map<Integer, GroupRenderInfo> groupInfoMap = new HashMap<>();
-        
-        contents.getSlots().forEach(slot -> {
-            IElement<?> element = slot.getElement();
-            if (element == null) return;
-            
-            Optional<IBookmark> bookmarkOpt = element.getBookmark();
-            if (bookmarkOpt.isEmpty()) return;
-            
-            BookmarkItem item = manager.findBookmarkItem(bookmarkOpt.get());
-            if (item == null) return;
-            
-            int groupId = item.getGroupId();
-            // 只有非默认组且组内有多个物品才显示背景
-            if (groupId != BookmarkManager.DEFAULT_GROUP_ID) {
-                int groupSize = manager.getGroupItems(groupId).size();
-                if (groupSize > 1) {
-                    var area = slot.getRenderArea();
-                    GroupRenderInfo info = groupInfoMap.computeIfAbsent(groupId, g -> new GroupRenderInfo());
-                    info.addSlot(area.x(), area.y(), area.width(), area.height());
+        // 第二遍：如果按住Ctrl，渲染每个书签的类型背景色
+        boolean ctrlPressed = Screen.hasControlDown();
+        if (ctrlPressed) {
+            for (int i = 0; i < size; i++) {
+                BookmarkItem item = table.getItem(i);
+                if (item != null) {
+                    renderCtrlBackground(guiGraphics, table.getSlot(i), item);
                 }
             }
-        });
+        }
         
-        // 第二遍：渲染分组背景
-        groupInfoMap.forEach((groupId, info) -> {
-            if (info.slotCount > 0) {
-                renderGroupBackground(guiGraphics, info);
+        // 第三遍：渲染数量和折叠指示器
+        // 所有文字（包括阴影）在同一个缩放后的pose下提交到同一个缓冲区，最后只flush一次
+        guiGraphics.pose().pushPose();
+        guiGraphics.pose().translate(0, 0, 200);
+        guiGraphics.pose().scale(TEXT_SCALE, TEXT_SCALE, 1.0f);
+        Matrix4f pose = guiGraphics.pose().last().pose();
+        MultiBufferSource.BufferSource buffers = guiGraphics.bufferSource();
+        
+        for (int i = 0; i < size; i++) {
+            BookmarkItem item = table.getItem(i);
+            if (item != null) {
+                renderSlotQuantity(font, pose, buffers, table.getSlot(i), table.getBookmark(i), item, manager);
             }
-        });
-        
-        // 第三遍：如果按住Ctrl，渲染每个书签的类型背景色
-        boolean ctrlPressed = Screen.hasControlDown();
-        if (ctrlPressed) {
-            contents.getSlots().forEach(slot -> {
-                renderCtrlBackground(guiGraphics, slot, manager);
-            });
         }
         
-        // 第四遍：渲染数量
-        contents.getSlots().forEach(slot -> {
-            renderSlotQuantity(guiGraphics, font, slot, manager);
-        });
+        guiGraphics.flush();
+        guiGraphics.pose().popPose();
     }
     
     /**
      * 渲染Ctrl按下时的背景色
      * 组头（RESULT）显示蓝色，组员（INGREDIENT）显示紫色
      */
-    private static void renderCtrlBackground(GuiGraphics guiGraphics, IngredientListSlot slot, BookmarkManager manager) {
-        IElement<?> element = slot.getElement();
-        if (element == null) return;
-        
-        Optional<IBookmark> bookmarkOpt = element.getBookmark();
-        if (bookmarkOpt.isEmpty()) return;
-        
-        BookmarkItem item = manager.findBookmarkItem(bookmarkOpt.get());
-        if (item == null) return;
-        
+    private static void renderCtrlBackground(GuiGraphics guiGraphics, IngredientListSlot slot, BookmarkItem item) {
         // 只有非默认组的书签才显示背景色
         if (item.getGroupId() == BookmarkManager.DEFAULT_GROUP_ID) return;
         
@@ -147,47 +111,30 @@ public class BookmarkQuantityRenderer {
     /**
      * 渲染分组背景
      */
-    private static void renderGroupBackground(GuiGraphics guiGraphics, GroupRenderInfo info) {
+    private static void renderGroupBackground(GuiGraphics guiGraphics, int minX, int minY, int maxX, int maxY) {
         // 绘制背景
-        guiGraphics.fill(info.minX - 1, info.minY - 1, info.maxX + 1, info.maxY + 1, GROUP_BG_COLOR);
+        guiGraphics.fill(minX - 1, minY - 1, maxX + 1, maxY + 1, GROUP_BG_COLOR);
         
         // 绘制边框
-        guiGraphics.fill(info.minX - 1, info.minY - 1, info.maxX + 1, info.minY, GROUP_BORDER_COLOR); // 上
-        guiGraphics.fill(info.minX - 1, info.maxY, info.maxX + 1, info.maxY + 1, GROUP_BORDER_COLOR); // 下
-        guiGraphics.fill(info.minX - 1, info.minY, info.minX, info.maxY, GROUP_BORDER_COLOR); // 左
-        guiGraphics.fill(info.maxX, info.minY, info.maxX + 1, info.maxY, GROUP_BORDER_COLOR); // 右
+        guiGraphics.fill(minX - 1, minY - 1, maxX + 1, minY, GROUP_BORDER_COLOR); // 上
+        guiGraphics.fill(minX - 1, maxY, maxX + 1, maxY + 1, GROUP_BORDER_COLOR); // 下
+        guiGraphics.fill(minX - 1, minY, minX, maxY, GROUP_BORDER_COLOR); // 左
+        guiGraphics.fill(maxX, minY, maxX + 1, maxY, GROUP_BORDER_COLOR); // 右
     }
     
     /**
      * 渲染单个槽位的数量
      */
-    private static void renderSlotQuantity(GuiGraphics guiGraphics, Font font, IngredientListSlot slot, BookmarkManager manager) {
-        IElement<?> element = slot.getElement();
-        if (element == null) {
-            return;
-        }
-        
-        Optional<IBookmark> bookmarkOpt = element.getBookmark();
-        if (bookmarkOpt.isEmpty()) {
-            return;
-        }
-        
-        IBookmark bookmark = bookmarkOpt.get();
-        
-        // 查找对应的BookmarkItem
-        BookmarkItem item = manager.findBookmarkItem(bookmark);
-        if (item == null) {
-            return;
-        }
-        
+    private static void renderSlotQuantity(Font font, Matrix4f pose, MultiBufferSource buffers, IngredientListSlot slot,
+                                           IBookmark bookmark, BookmarkItem item, BookmarkManager manager) {
         // 获取组信息
         BookmarkGroup group = manager.getGroup(item.getGroupId());
         
         // 渲染折叠指示器（NEI风格：折叠时在左上角显示组大小）
         if (group != null && !group.isExpanded()) {
-            int groupSize = manager.getGroupItems(item.getGroupId()).size();
+            int groupSize = manager.getGroupSize(item.getGroupId());
             if (groupSize > 1 && item.isOutput()) {
-                renderCollapsedIndicator(guiGraphics, font, slot, groupSize);
+                renderCollapsedIndicator(font, pose, buffers, slot, groupSize);
             }
         }
         
@@ -200,19 +147,19 @@ public class BookmarkQuantityRenderer {
         // 检测是否是流体/化学品类型
         boolean isFluidOrChemical = isFluidOrChemical(bookmark);
         
-        // 格式化数量字符串
-        String quantityStr = formatQuantity(quantity, isFluidOrChemical);
+        // 格式化数量字符串（缓存中带有测量好的宽度）
+        int label = QuantityLabelCache.lookup(font, quantity, isFluidOrChemical);
+        String quantityStr = QuantityLabelCache.getLabel(label);
         
         // 获取渲染区域
         var area = slot.getRenderArea();
         int x = area.x();
         int y = area.y();
         
-        // 计算文字宽度
-        int textWidth = font.width(quantityStr);
+        // 文字宽度
+        int textWidth = QuantityLabelCache.getWidth(label);
         
-        // 缩放0.5倍
-        float scale = 0.5f;
+        // 坐标是缩放0.5倍之后的
         float textX;
         float textY = (y + 12) * 2;  // 底部位置
         
@@ -224,17 +171,10 @@ public class BookmarkQuantityRenderer {
             textX = (x + 17) * 2 - textWidth;
         }
         
-        // 绘制阴影文字
-        guiGraphics.pose().pushPose();
-        guiGraphics.pose().translate(0, 0, 200);
-        guiGraphics.pose().scale(scale, scale, 1.0f);
-        
         // 绘制阴影
-        guiGraphics.drawString(font, quantityStr, (int)(textX + 1), (int)(textY + 1), 0x3F3F3F, false);
+        drawText(font, pose, buffers, quantityStr, (int)(textX + 1), (int)(textY + 1), 0x3F3F3F);
         // 绘制主文字 (使用绿色来区分自定义数量)
-        guiGraphics.drawString(font, quantityStr, (int)textX, (int)textY, 0x55FF55, false);
-        
-        guiGraphics.pose().popPose();
+        drawText(font, pose, buffers, quantityStr, (int)textX, (int)textY, 0x55FF55);
     }
     
     /**
@@ -242,20 +182,7 @@ public class BookmarkQuantityRenderer {
      */
     private static boolean isFluidOrChemical(IBookmark bookmark) {
         if (bookmark instanceof IngredientBookmark<?> ingredientBookmark) {
-            ITypedIngredient<?> ingredient = ingredientBookmark.getIngredient();
-            Object obj = ingredient.getIngredient();
-            
-            // 如果不是ItemStack，就是流体或化学品
-            if (!(obj instanceof ItemStack)) {
-                return true;
-            }
-            
-            // 检查类型UID
-            String typeUid = ingredient.getType().getUid().toString();
-            if (typeUid.contains("fluid") || typeUid.contains("chemical") || typeUid.contains("gas") 
-                    || typeUid.contains("slurry") || typeUid.contains("pigment") || typeUid.contains("infuse")) {
-                return true;
-            }
+            return IngredientKindRegistry.getInstance().getKind(ingredientBookmark.getIngredient()).isFluidLike();
         }
         return false;
     }
@@ -263,43 +190,25 @@ public class BookmarkQuantityRenderer {
     /**
      * 渲染折叠指示器
      */
-    private static void renderCollapsedIndicator(GuiGraphics guiGraphics, Font font, IngredientListSlot slot, int groupSize) {
+    private static void renderCollapsedIndicator(Font font, Matrix4f pose, MultiBufferSource buffers, IngredientListSlot slot, int groupSize) {
         var area = slot.getRenderArea();
         int x = area.x();
         int y = area.y();
         
         String indicator = "+" + (groupSize - 1);
         
-        // 缩放0.5倍
-        float scale = 0.5f;
+        // 坐标是缩放0.5倍之后的
         float textX = x * 2 + 2;  // 左上角位置
         float textY = y * 2 + 2;
         
-        guiGraphics.pose().pushPose();
-        guiGraphics.pose().translate(0, 0, 200);
-        guiGraphics.pose().scale(scale, scale, 1.0f);
-        
-        guiGraphics.drawString(font, indicator, (int)(textX + 1), (int)(textY + 1), 0x3F3F3F, false);
-        guiGraphics.drawString(font, indicator, (int)textX, (int)textY, COLLAPSED_INDICATOR_COLOR, false);
-        
-        guiGraphics.pose().popPose();
+        drawText(font, pose, buffers, indicator, (int)(textX + 1), (int)(textY + 1), 0x3F3F3F);
+        drawText(font, pose, buffers, indicator, (int)textX, (int)textY, COLLAPSED_INDICATOR_COLOR);
     }
     
     /**
-     * 格式化数量显示
-     * @param quantity 数量
-     * @param isFluid 是否是流体/化学品
+     * 把文字加入缓冲区（不立即绘制，由renderQuantities统一flush）
      */
-    private static String formatQuantity(int quantity, boolean isFluid) {
-        String suffix = isFluid ? "L" : "";
-        
-        if (quantity >= 1000000) {
-            return String.format("%.1fM%s", quantity / 1000000.0, suffix);
-        } else if (quantity >= 10000) {
-            return String.format("%.0fk%s", quantity / 1000.0, suffix);
-        } else if (quantity >= 1000) {
-            return String.format("%.1fk%s", quantity / 1000.0, suffix);
-        }
-        return quantity + suffix;
+    private static void drawText(Font font, Matrix4f pose, MultiBufferSource buffers, String text, int x, int y, int color) {
+        font.drawInBatch(text, x, y, color, false, pose, buffers, Font.DisplayMode.NORMAL, 0, LightTexture.FULL_BRIGHT);
     }
 }
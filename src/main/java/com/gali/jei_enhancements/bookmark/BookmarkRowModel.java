@@ -0,0 +1,300 @@
+package com.gali.jei_enhancements.bookmark;
+
+import mezz.jei.gui.bookmarks.IBookmark;
+import mezz.jei.gui.overlay.elements.IElement;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 垂直布局下书签列表的行模型
+ *
+ * 每个RESULT/ITEM开始新的一行，展开的组收集紧随其后的同组INGREDIENT，
+ * 其余可见元素各自成一行。IngredientListRendererMixin（摆放元素）、
+ * IngredientGridWithNavigationMixin（分页）和GroupingDragHandler（拖动分组）都读取这里的结果。
+ *
+ * 行模型带有两个版本戳：BookmarkManager的版本号和BookmarkList的修改计数（由BookmarkListMixin在列表变化时增加）。
+ * update()按以下顺序判断（翻页时也会调用）：
+ * - 两者都没变且元素数量相同：逐个检查元素的可见性（可见性由JEI决定，变化时没有通知），
+ *   不变就直接返回。这一步是O(n)次isVisible()调用，没有按引用比较和分配；定位起始行的findRow()是二分查找
+ * - BookmarkManager的版本号变化（包括Ctrl+滚轮修改数量）：直接重建
+ * - 只有修改计数变化：先按引用比较元素和可见性，确实不同才重建
+ * 重建是一次O(n)遍历。
+ * 材料列表也会经过同样的mixin，调用update()前先用isBookmarkList()排除，避免两个列表交替重建。
+ */
+public class BookmarkRowModel {
+
+    private static final BookmarkRowModel INSTANCE = new BookmarkRowModel();
+
+    private static final IElement<?>[] NO_ELEMENTS = new IElement<?>[0];
+    private static final BookmarkItem[] NO_ITEMS = new BookmarkItem[0];
+    private static final int[] EMPTY = new int[0];
+
+    // 判断是否是书签列表时检查的书签元素数量
+    private static final int MANAGED_CHECK_COUNT = 5;
+
+    // 构建时的元素（按引用比较）和对应的BookmarkItem（没有时为null）
+    private IElement<?>[] elements = NO_ELEMENTS;
+    private BookmarkItem[] items = NO_ITEMS;
+    private boolean[] visible = new boolean[0];
+
+    // 第row行的元素索引位于rowElements[rowOffsets[row]..rowOffsets[row + 1])，按列表顺序排列
+    private int[] rowOffsets = {0};
+    private int[] rowElements = EMPTY;
+    private int rowCount = 0;
+
+    // 元素所在的行
+    private final Map<IElement<?>, Integer> elementRows = new IdentityHashMap<>();
+
+    private int managerVersion = -1;
+    private int version = 0;
+
+    // BookmarkList的修改计数，以及构建（或上次确认元素未变）时的值
+    private int listModCount = 0;
+    private int checkedListModCount = -1;
+
+    public static BookmarkRowModel getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 更新元素列表，元素、可见性或书签数据变化时重建行
+     */
+    public BookmarkRowModel update(List<IElement<?>> elementList) {
+        int currentVersion = BookmarkManager.getInstance().getVersion();
+        if (currentVersion == managerVersion && listModCount == checkedListModCount
+                && elementList.size() == elements.length) {
+            if (visibilityChanged(elementList)) {
+                rebuild(elementList);
+            }
+            return this;
+        }
+        if (currentVersion != managerVersion || elementsChanged(elementList)) {
+            rebuild(elementList);
+            managerVersion = currentVersion;
+        }
+        checkedListModCount = listModCount;
+        return this;
+    }
+
+    /**
+     * BookmarkList的内容发生变化（添加、删除、移动、从配置文件加载）时由BookmarkListMixin调用
+     */
+    public void onBookmarkListChanged() {
+        listModCount++;
+    }
+
+    /**
+     * 行模型的版本号，每次重建时增加
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * 列表前几个书签元素中至少有一个在BookmarkManager中有记录
+     */
+    public static boolean isBookmarkList(List<IElement<?>> elementList) {
+        BookmarkManager manager = BookmarkManager.getInstance();
+        int checkedCount = 0;
+        int managedCount = 0;
+
+        for (int i = 0; i < elementList.size() && checkedCount < MANAGED_CHECK_COUNT; i++) {
+            Optional<IBookmark> bookmarkOpt = elementList.get(i).getBookmark();
+            if (bookmarkOpt.isPresent()) {
+                checkedCount++;
+                if (manager.findBookmarkItem(bookmarkOpt.get()) != null) {
+                    managedCount++;
+                }
+            }
+        }
+        return managedCount > 0;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getRowSize(int row) {
+        return rowOffsets[row + 1] - rowOffsets[row];
+    }
+
+    /**
+     * 第row行的第index个元素在列表中的索引
+     */
+    public int getRowElementIndex(int row, int index) {
+        return rowElements[rowOffsets[row] + index];
+    }
+
+    /**
+     * 第row行的第index个元素
+     */
+    public IElement<?> getRowElement(int row, int index) {
+        return elements[getRowElementIndex(row, index)];
+    }
+
+    /**
+     * 第row行的第index个元素对应的BookmarkItem，没有时返回null
+     */
+    @Nullable
+    public BookmarkItem getRowItem(int row, int index) {
+        return items[getRowElementIndex(row, index)];
+    }
+
+    /**
+     * 行在列表中的起始索引（行首元素的索引），翻页时firstItemIndex指向这里
+     */
+    public int getRowStart(int row) {
+        return rowElements[rowOffsets[row]];
+    }
+
+    /**
+     * 包含元素索引的行：行首索引不大于elementIndex的最后一行，没有行时返回0
+     */
+    public int findRow(int elementIndex) {
+        int low = 0;
+        int high = rowCount - 1;
+        int result = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (getRowStart(mid) <= elementIndex) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 滚动时允许的最后一个起始行：从这一行开始恰好能填满屏幕，之后不再留出空行
+     * 一行元素超过列数时会换行显示，这里按实际占用的屏幕行数计算，只遍历末尾的一屏
+     * @param lines 屏幕可显示的行数
+     * @param columns 每行的列数
+     */
+    public int getLastStartRow(int lines, int columns) {
+        int used = 0;
+        for (int row = rowCount - 1; row >= 0; row--) {
+            used += Math.max(1, (getRowSize(row) + columns - 1) / columns);
+            if (used > lines) {
+                return Math.min(rowCount - 1, row + 1);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 元素所在的行，不在模型中时返回-1
+     */
+    public int getRowOf(@Nullable IElement<?> element) {
+        if (element == null) {
+            return -1;
+        }
+        Integer row = elementRows.get(element);
+        return row != null ? row : -1;
+    }
+
+    private boolean elementsChanged(List<IElement<?>> elementList) {
+        if (elementList.size() != elements.length) {
+            return true;
+        }
+        for (int i = 0; i < elements.length; i++) {
+            IElement<?> element = elementList.get(i);
+            if (element != elements[i] || element.isVisible() != visible[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 只比较可见性（元素没有变化时使用）
+     */
+    private boolean visibilityChanged(List<IElement<?>> elementList) {
+        for (int i = 0; i < visible.length; i++) {
+            if (elementList.get(i).isVisible() != visible[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void rebuild(List<IElement<?>> elementList) {
+        BookmarkManager manager = BookmarkManager.getInstance();
+        int size = elementList.size();
+        elements = elementList.toArray(NO_ELEMENTS);
+        items = new BookmarkItem[size];
+        visible = new boolean[size];
+        boolean[] bookmarked = new boolean[size];
+
+        // 先解析每个元素的BookmarkItem
+        for (int i = 0; i < size; i++) {
+            visible[i] = elements[i].isVisible();
+            Optional<IBookmark> bookmarkOpt = elements[i].getBookmark();
+            if (bookmarkOpt.isEmpty()) continue;
+
+            bookmarked[i] = true;
+            items[i] = manager.findBookmarkItem(bookmarkOpt.get());
+        }
+
+        // 再按行收集元素
+        int[] offsets = rowOffsets.length > size ? rowOffsets : new int[size + 1];
+        int[] rowIndices = rowElements.length >= size ? rowElements : new int[size];
+        boolean[] processed = new boolean[size];
+        int count = 0;
+        int position = 0;
+        elementRows.clear();
+
+        for (int i = 0; i < size; i++) {
+            if (processed[i]) continue;
+            processed[i] = true;
+
+            if (!visible[i]) continue;
+
+            offsets[count] = position;
+            rowIndices[position++] = i;
+
+            BookmarkItem item = items[i];
+            if (item != null && isRowHead(item)) {
+                BookmarkGroup group = manager.getGroup(item.getGroupId());
+                if (group == null || group.isExpanded()) {
+                    // 展开状态：收集紧随其后的同组INGREDIENT，直到遇到下一个RESULT/ITEM或非书签元素
+                    for (int j = i + 1; j < size; j++) {
+                        if (processed[j] || !visible[j]) continue;
+
+                        BookmarkItem nextItem = items[j];
+                        if (!bookmarked[j] || nextItem == null || isRowHead(nextItem)) break;
+
+                        if (nextItem.getGroupId() == item.getGroupId() && nextItem.isIngredient()) {
+                            processed[j] = true;
+                            rowIndices[position++] = j;
+                        }
+                    }
+                }
+                // 折叠状态：只显示组头
+            }
+
+            for (int k = offsets[count]; k < position; k++) {
+                elementRows.put(elements[rowIndices[k]], count);
+            }
+            count++;
+        }
+        offsets[count] = position;
+
+        rowOffsets = offsets;
+        rowElements = rowIndices;
+        rowCount = count;
+        version++;
+    }
+
+    /**
+     * RESULT和普通物品开始新的一行
+     */
+    private static boolean isRowHead(BookmarkItem item) {
+        return item.isOutput() || item.getType() == BookmarkItem.BookmarkItemType.ITEM;
+    }
+}
@@ -0,0 +1,63 @@
+package com.gali.jei_enhancements.bookmark;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * 垂直布局下按行滚动书签
+ *
+ * 普通滚轮每格滚动ROWS_PER_NOTCH行（Shift+滚轮仍按JEI的方式整页翻动）。
+ * 触控板等产生的小数滚动量会累积起来，凑满一行才移动，反向滚动时丢弃之前的累积。
+ * 滚动只改变起始行，IngredientListRendererMixin只摆放屏幕内的行，
+ * 因此无论有多少组，每次滚动和每帧的开销都与屏幕大小成正比。
+ */
+public class BookmarkRowScroller {
+
+    private static final BookmarkRowScroller INSTANCE = new BookmarkRowScroller();
+
+    // 滚轮每格滚动的行数
+    private static final int ROWS_PER_NOTCH = Math.max(1, Integer.getInteger("jei_enhancements.scrollRows", 3));
+
+    // 当前按行分页的书签网格（由IngredientGridWithNavigationMixin在布局更新时设置）
+    @Nullable
+    private IVerticalPagingAccessor pagingGrid = null;
+
+    // 还不够一行的滚动量（以行为单位）
+    private double accumulated = 0;
+
+    public static BookmarkRowScroller getInstance() {
+        return INSTANCE;
+    }
+
+    public void setPagingGrid(@Nullable IVerticalPagingAccessor grid) {
+        if (pagingGrid != grid) {
+            pagingGrid = grid;
+            accumulated = 0;
+        }
+    }
+
+    /**
+     * 处理滚轮
+     * @param scrollDelta 滚轮量，向上为正
+     * @return 是否由按行滚动处理（此时应取消JEI的默认翻页）
+     */
+    public boolean onScroll(double scrollDelta) {
+        IVerticalPagingAccessor grid = pagingGrid;
+        if (grid == null || grid.jei_enhancements$getGroupCount() == 0 || scrollDelta == 0) {
+            return false;
+        }
+
+        // 向上滚动时起始行减小
+        double rows = -scrollDelta * ROWS_PER_NOTCH;
+        if (accumulated != 0 && Math.signum(accumulated) != Math.signum(rows)) {
+            accumulated = 0;
+        }
+        accumulated += rows;
+
+        int whole = (int) accumulated;
+        if (whole != 0) {
+            accumulated -= whole;
+            grid.jei_enhancements$scrollRows(whole);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,127 @@
+package com.gali.jei_enhancements.bookmark;
+
+import mezz.jei.gui.bookmarks.IBookmark;
+import mezz.jei.gui.overlay.IngredientListSlot;
+import mezz.jei.gui.overlay.elements.IElement;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 书签槽位到BookmarkItem的解析表
+ *
+ * 每个槽位的IBookmark和BookmarkItem只在布局变化时解析一次，所有渲染步骤和GroupingDragHandler共用。
+ * 槽位、槽位里的元素（按引用比较）或BookmarkManager的版本号变化时重新解析，
+ * 否则每帧只做一次与槽位数量成正比的引用比较。
+ */
+public class BookmarkSlotTable {
+
+    private static final BookmarkSlotTable INSTANCE = new BookmarkSlotTable();
+
+    private static final IngredientListSlot[] NO_SLOTS = new IngredientListSlot[0];
+    private static final IElement<?>[] NO_ELEMENTS = new IElement<?>[0];
+    private static final IBookmark[] NO_BOOKMARKS = new IBookmark[0];
+    private static final BookmarkItem[] NO_ITEMS = new BookmarkItem[0];
+
+    private List<IngredientListSlot> slots = List.of();
+
+    // 解析时的槽位和槽位里的元素（按引用比较），用于判断布局是否变化
+    private IngredientListSlot[] slotRefs = NO_SLOTS;
+    private IElement<?>[] elements = NO_ELEMENTS;
+    private IBookmark[] bookmarks = NO_BOOKMARKS;
+    private BookmarkItem[] items = NO_ITEMS;
+
+    private int managerVersion = -1;
+
+    public static BookmarkSlotTable getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 更新槽位列表，布局或书签映射变化时重新解析
+     */
+    public void update(List<IngredientListSlot> slots) {
+        this.slots = slots;
+
+        int version = BookmarkManager.getInstance().getVersion();
+        if (version == managerVersion && !elementsChanged(slots)) {
+            return;
+        }
+        rebuild(slots);
+        managerVersion = version;
+    }
+
+    public List<IngredientListSlot> getSlots() {
+        return slots;
+    }
+
+    public int size() {
+        return items.length;
+    }
+
+    public IngredientListSlot getSlot(int index) {
+        return slots.get(index);
+    }
+
+    /**
+     * 解析时槽位里的元素，没有时返回null
+     */
+    @Nullable
+    public IElement<?> getElement(int index) {
+        return index >= 0 && index < elements.length ? elements[index] : null;
+    }
+
+    /**
+     * 槽位对应的JEI书签，没有时返回null
+     */
+    @Nullable
+    public IBookmark getBookmark(int index) {
+        return index >= 0 && index < bookmarks.length ? bookmarks[index] : null;
+    }
+
+    /**
+     * 槽位对应的BookmarkItem，没有时返回null
+     */
+    @Nullable
+    public BookmarkItem getItem(int index) {
+        return index >= 0 && index < items.length ? items[index] : null;
+    }
+
+    private boolean elementsChanged(List<IngredientListSlot> slots) {
+        if (slots.size() != elements.length) {
+            return true;
+        }
+        for (int i = 0; i < elements.length; i++) {
+            IngredientListSlot slot = slots.get(i);
+            if (slot != slotRefs[i] || slot.getElement() != elements[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void rebuild(List<IngredientListSlot> slots) {
+        BookmarkManager manager = BookmarkManager.getInstance();
+        int size = slots.size();
+        slotRefs = slots.toArray(NO_SLOTS);
+        elements = new IElement<?>[size];
+        bookmarks = new IBookmark[size];
+        items = new BookmarkItem[size];
+
+        for (int i = 0; i < size; i++) {
+            IElement<?> element = slots.get(i).getElement();
+            elements[i] = element;
+            if (element == null) continue;
+
+            Optional<IBookmark> bookmarkOpt = element.getBookmark();
+            if (bookmarkOpt.isEmpty()) continue;
+
+            bookmarks[i] = bookmarkOpt.get();
+            items[i] = manager.findBookmarkItem(bookmarks[i]);
+        }
+
+        // 槽位或书签数据变化后，覆盖层的几何信息也需要重新计算
+        BookmarkOverlayGeometry.getInstance().invalidate();
+    }
+}
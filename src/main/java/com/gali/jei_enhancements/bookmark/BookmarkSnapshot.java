@@ -0,0 +1,56 @@
+package com.gali.jei_enhancements.bookmark;
+
+import java.util.List;
+
+/**
+ * BookmarkManager某一时刻的不可变快照
+ * 在渲染线程上生成，之后只在后台线程上序列化，不再引用BookmarkGroup/BookmarkItem
+ * 序列化见BookmarkBinaryFormat（存档）和BookmarkJsonFormat（导入/导出）
+ */
+final class BookmarkSnapshot {
+
+    static final class Group {
+        final int groupId;
+        final boolean expanded;
+        final boolean craftingChain;
+        final int linkedGroupId;
+
+        Group(BookmarkGroup group) {
+            this.groupId = group.getGroupId();
+            this.expanded = group.isExpanded();
+            this.craftingChain = group.isCraftingChainEnabled();
+            this.linkedGroupId = group.getLinkedGroupId();
+        }
+    }
+
+    static final class Item {
+        final long id;
+        final int groupId;
+        final String itemKey;
+        final long factor;
+        final long amount;
+        final int type;
+
+        Item(BookmarkItem item) {
+            this.id = item.getSequence();
+            this.groupId = item.getGroupId();
+            this.itemKey = item.getItemKey();
+            this.factor = item.getFactor();
+            this.amount = item.getAmount();
+            this.type = item.getType().ordinal();
+        }
+    }
+
+    // 快照的代数，与之对应的操作日志才会在加载时回放
+    final long generation;
+    final int nextGroupId;
+    final List<Group> groups;
+    final List<Item> items;
+
+    BookmarkSnapshot(long generation, int nextGroupId, List<Group> groups, List<Item> items) {
+        this.generation = generation;
+        this.nextGroupId = nextGroupId;
+        this.groups = List.copyOf(groups);
+        this.items = List.copyOf(items);
+    }
+}
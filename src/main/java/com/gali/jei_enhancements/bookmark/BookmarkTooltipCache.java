@@ -0,0 +1,191 @@
+package com.gali.jei_enhancements.bookmark;
+
+import com.gali.jei_enhancements.ingredient.IngredientKind;
+import com.gali.jei_enhancements.ingredient.IngredientKindRegistry;
+import mezz.jei.api.ingredients.ITypedIngredient;
+import mezz.jei.gui.bookmarks.IBookmark;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.screens.Screen;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.packs.resources.ResourceManager;
+import net.minecraft.server.packs.resources.ResourceManagerReloadListener;
+import net.minecraft.world.item.ItemStack;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 书签tooltip中由本模组添加的行（组数详情、配方环提示、Alt操作说明）
+ *
+ * 鼠标悬停时每帧都会绘制tooltip，这些行只在第一次悬停时构建，之后直接复用。
+ * 缓存按(书签, BookmarkItem, 数量, Shift/Alt状态, 语言, BookmarkManager版本)判断是否有效，
+ * 资源重载时清空。
+ */
+public class BookmarkTooltipCache implements ResourceManagerReloadListener {
+
+    private static final BookmarkTooltipCache INSTANCE = new BookmarkTooltipCache();
+
+    private static final int MODIFIER_SHIFT = 1;
+    private static final int MODIFIER_ALT = 2;
+
+    // 缓存的键
+    private IBookmark bookmark;
+    private BookmarkItem item;
+    private long amount;
+    private int modifiers;
+    private String language;
+    private int managerVersion;
+
+    // 缓存的行，null表示缓存无效
+    private List<Component> lines;
+
+    public static BookmarkTooltipCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 获取要添加到书签tooltip末尾的行
+     */
+    public List<Component> getLines(IBookmark bookmark, ITypedIngredient<?> typedIngredient) {
+        BookmarkManager manager = BookmarkManager.getInstance();
+        BookmarkItem item = manager.findBookmarkItem(bookmark);
+        long amount = item != null ? item.getAmount() : 0;
+        int modifiers = (Screen.hasShiftDown() ? MODIFIER_SHIFT : 0) | (Screen.hasAltDown() ? MODIFIER_ALT : 0);
+        String language = Minecraft.getInstance().getLanguageManager().getSelected();
+        int version = manager.getVersion();
+
+        if (lines == null || bookmark != this.bookmark || item != this.item || amount != this.amount
+                || modifiers != this.modifiers || !language.equals(this.language) || version != managerVersion) {
+            lines = List.copyOf(buildLines(manager, item, typedIngredient, modifiers));
+            this.bookmark = bookmark;
+            this.item = item;
+            this.amount = amount;
+            this.modifiers = modifiers;
+            this.language = language;
+            this.managerVersion = version;
+        }
+        return lines;
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void invalidate() {
+        lines = null;
+        bookmark = null;
+        item = null;
+    }
+
+    @Override
+    public void onResourceManagerReload(ResourceManager resourceManager) {
+        invalidate();
+    }
+
+    private List<Component> buildLines(BookmarkManager manager, BookmarkItem item, ITypedIngredient<?> typedIngredient, int modifiers) {
+        List<Component> result = new ArrayList<>();
+
+        // 如果按住Shift，显示书签数量的组数信息
+        if ((modifiers & MODIFIER_SHIFT) != 0 && item != null && item.getAmount() > 0) {
+            String countDetails = getCountDetails(typedIngredient, item.getAmount());
+            if (countDetails != null) {
+                result.add(Component.literal(countDetails).withStyle(style -> style.withColor(0x55FFFF)));
+            }
+        }
+
+        // crafting chain中处在配方环里的配方，提示数量来自环的迭代求解
+        if (item != null) {
+            addChainCycleLine(result, manager, item);
+        }
+
+        // 如果按住Alt，添加操作说明
+        if ((modifiers & MODIFIER_ALT) != 0) {
+            result.add(Component.empty());
+            result.add(Component.translatable("jei_enhancements.tooltip.header").withStyle(style -> style.withColor(0xFFFF55)));
+
+            // 通用操作
+            result.add(Component.translatable("jei_enhancements.tooltip.ctrl_scroll").withStyle(style -> style.withColor(0xAAAAAA)));
+            result.add(Component.translatable("jei_enhancements.tooltip.ctrl_alt_scroll").withStyle(style -> style.withColor(0xAAAAAA)));
+            result.add(Component.translatable("jei_enhancements.tooltip.ctrl_shift_a").withStyle(style -> style.withColor(0xAAAAAA)));
+            result.add(Component.translatable("jei_enhancements.tooltip.left_drag_down").withStyle(style -> style.withColor(0xAAAAAA)));
+            result.add(Component.translatable("jei_enhancements.tooltip.left_drag_up").withStyle(style -> style.withColor(0xAAAAAA)));
+            result.add(Component.translatable("jei_enhancements.tooltip.shift_left_drag_down").withStyle(style -> style.withColor(0xAAAAAA)));
+            result.add(Component.translatable("jei_enhancements.tooltip.shift_left_drag_up").withStyle(style -> style.withColor(0xAAAAAA)));
+            result.add(Component.translatable("jei_enhancements.tooltip.right_drag").withStyle(style -> style.withColor(0xAAAAAA)));
+            result.add(Component.translatable("jei_enhancements.tooltip.right_click_bracket").withStyle(style -> style.withColor(0xAAAAAA)));
+            result.add(Component.translatable("jei_enhancements.tooltip.click_page").withStyle(style -> style.withColor(0xAAAAAA)));
+        } else {
+            result.add(Component.empty());
+            result.add(Component.translatable("jei_enhancements.tooltip.hold_alt").withStyle(style -> style.withColor(0x555555)));
+        }
+
+        return result;
+    }
+
+    /**
+     * 书签所在配方处于crafting chain的配方环中时，添加提示
+     */
+    private void addChainCycleLine(List<Component> result, BookmarkManager manager, BookmarkItem item) {
+        BookmarkGroup group = manager.getGroup(item.getGroupId());
+        if (group == null || !group.isCraftingChainEnabled() || !group.hasChainCycles()) return;
+
+        RecipeSegment segment = manager.getRecipeSegment(item);
+        if (segment == null || !segment.isInCycle()) return;
+
+        if (group.isChainConverged()) {
+            result.add(Component.translatable("jei_enhancements.tooltip.chain_cycle").withStyle(style -> style.withColor(0xE0B040)));
+        } else {
+            result.add(Component.translatable("jei_enhancements.tooltip.chain_cycle_diverged").withStyle(style -> style.withColor(0xE05050)));
+        }
+    }
+
+    /**
+     * 获取数量的组数详情
+     */
+    private static String getCountDetails(ITypedIngredient<?> typedIngredient, long quantity) {
+        // 获取最大堆叠数
+        int maxStackSize;
+
+        Optional<ItemStack> itemStackOpt = typedIngredient.getItemStack();
+        if (itemStackOpt.isPresent()) {
+            maxStackSize = itemStackOpt.get().getMaxStackSize();
+        } else {
+            // 其他材料按种类的一组数量计算，流体/化学品使用1000L作为一组
+            IngredientKind kind = IngredientKindRegistry.getInstance().getKind(typedIngredient);
+            maxStackSize = kind.getStackSize();
+            if (!kind.getUnitSuffix().isEmpty()) {
+                return getFluidCountDetails(quantity, maxStackSize, kind.getUnitSuffix());
+            }
+        }
+
+        if (maxStackSize > 1 && quantity > maxStackSize) {
+            long stacks = quantity / maxStackSize;
+            long remainder = quantity % maxStackSize;
+
+            if (remainder > 0) {
+                return String.format("%d = %d × %d + %d", quantity, stacks, maxStackSize, remainder);
+            } else {
+                return String.format("%d = %d × %d", quantity, stacks, maxStackSize);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 获取流体数量的组数详情
+     */
+    private static String getFluidCountDetails(long amount, int bucketSize, String unit) {
+        if (amount > bucketSize) {
+            long buckets = amount / bucketSize;
+            long remainder = amount % bucketSize;
+
+            if (remainder > 0) {
+                return String.format("%d%s = %d × %d%s + %d%s", amount, unit, buckets, bucketSize, unit, remainder, unit);
+            } else {
+                return String.format("%d%s = %d × %d%s", amount, unit, buckets, bucketSize, unit);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,428 @@
+package com.gali.jei_enhancements.bookmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * crafting chain求解器（参考NEI的RecipeChainMath）
+ *
+ * 为一组配方建立一次生产者/消费者图，按拓扑顺序单次传播需求量：
+ * 1. 每个INGREDIENT选择一个能提供它的RESULT（NEI的preferredItems）
+ * 2. 从顶层配方（第一个RESULT）出发求拓扑序，消费者总在生产者之前
+ * 3. 生产者的需求量 = 所有消费者的 factor * multiplier 之和
+ * 4. 生产者的multiplier = ceil(需求量 / factor)，即NEI逐次shift累加的结果
+ * 5. 配方环（强连通分量）整体求解，结果与配方的添加顺序无关
+ *
+ * 求解器保留上一次的图和结果，调整顶层配方时用update()只传播变化量
+ */
+class CraftingChainSolver {
+
+    private static final int NONE = -1;
+
+    // 配方环不动点迭代的次数上限
+    private static final int MAX_CYCLE_ITERATIONS = 64;
+
+    // 与BookmarkManager.shiftMultiplier相同的multiplier上限
+    private static final long MAX_MULTIPLIER = Integer.MAX_VALUE;
+
+    // 图的节点（下标0是顶层配方）
+    private final RecipeSegment[] nodes;
+
+    // producers[c][k]：配方c的第k个INGREDIENT由哪个配方提供（NONE表示没有）
+    private final int[][] producers;
+
+    // weights[c][k]：配方c的第k个INGREDIENT每次合成需要的数量
+    private final long[][] weights;
+
+    // 上一次求解的结果（第一次solve()之前为null）
+    // components按消费者在前的顺序排列，required是每个配方来自分量外的需求量
+    private int[][] components;
+    private int[] componentOf;
+    private long[] required;
+    private long[] multipliers;
+    private boolean[] diverged;
+    private boolean overflowed;
+
+    CraftingChainSolver(List<RecipeSegment> recipes) {
+        int size = recipes.size();
+        this.nodes = recipes.toArray(new RecipeSegment[0]);
+        this.producers = new int[size][];
+        this.weights = new long[size][];
+
+        // itemKey -> 能产出它的配方（按组内顺序）
+        Map<String, List<Integer>> resultsByKey = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            resultsByKey.computeIfAbsent(nodes[i].getResult().getItemKey(), key -> new ArrayList<>()).add(i);
+
+            List<BookmarkItem> ingredients = nodes[i].getIngredients();
+            producers[i] = new int[ingredients.size()];
+            weights[i] = new long[ingredients.size()];
+            Arrays.fill(producers[i], NONE);
+            for (int k = 0; k < ingredients.size(); k++) {
+                weights[i][k] = ingredients.get(k).getFactor();
+            }
+        }
+
+        // 与NEI相同：按顺序从每个RESULT出发分配提供者，跳过当前路径上的配方
+        boolean[] onPath = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            assignProducers(i, resultsByKey, onPath);
+        }
+    }
+
+    /**
+     * 为配方source中尚未分配的INGREDIENT选择提供者，并递归处理被选中的配方
+     * 每次递归都伴随一次新的分配，所以总调用次数与INGREDIENT数量成线性关系
+     */
+    private void assignProducers(int source, Map<String, List<Integer>> resultsByKey, boolean[] onPath) {
+        onPath[source] = true;
+
+        List<BookmarkItem> ingredients = nodes[source].getIngredients();
+        for (int k = 0; k < ingredients.size(); k++) {
+            if (producers[source][k] != NONE) continue;
+
+            List<Integer> candidates = resultsByKey.get(ingredients.get(k).getItemKey());
+            if (candidates == null) continue;
+
+            for (int candidate : candidates) {
+                if (candidate == source || onPath[candidate]) continue;
+
+                producers[source][k] = candidate;
+                assignProducers(candidate, resultsByKey, onPath);
+                break;
+            }
+        }
+
+        onPath[source] = false;
+    }
+
+    /**
+     * 求解并写回每个配方的multiplier
+     * 顶层配方的multiplier保持不变，从顶层无法到达的配方不做修改
+     *
+     * 先用Tarjan算法求出强连通分量（配方环），再按分量的拓扑顺序传播需求量：
+     * - 单个配方：multiplier = ceil(需求量 / factor)
+     * - 配方环：从外部需求量出发做有上限的不动点迭代，直到各配方的multiplier不再变化
+     *
+     * 求解结果会保留下来，供update()做增量传播
+     */
+    Result solve() {
+        int size = nodes.length;
+        for (RecipeSegment node : nodes) {
+            node.setInCycle(false);
+        }
+        if (size == 0) return new Result(0, true);
+
+        if (components == null) {
+            components = stronglyConnectedComponents();
+            componentOf = new int[size];
+            Arrays.fill(componentOf, NONE);
+            for (int c = 0; c < components.length; c++) {
+                for (int node : components[c]) {
+                    componentOf[node] = c;
+                }
+            }
+        }
+
+        required = new long[size];
+        multipliers = new long[size];
+        diverged = new boolean[components.length];
+        overflowed = false;
+        multipliers[0] = nodes[0].getResult().getMultiplier();
+
+        // 分量按消费者在前的顺序排列，处理到某个分量时，外部对它的需求已经全部累加完毕
+        for (int c = 0; c < components.length; c++) {
+            int[] members = components[c];
+            if (members.length == 1) {
+                int node = members[0];
+                if (node != 0) {
+                    multipliers[node] = multiplierFor(node, required[node]);
+                }
+            } else {
+                for (int node : members) {
+                    nodes[node].setInCycle(true);
+                }
+                diverged[c] = !solveCycle(members, c);
+            }
+
+            // 把这个分量的需求传给分量外的提供者
+            for (int consumer : members) {
+                for (int k = 0; k < producers[consumer].length; k++) {
+                    int producer = producers[consumer][k];
+                    if (producer == NONE || componentOf[producer] == c) continue;
+
+                    required[producer] = saturatedAdd(required[producer], demand(consumer, k, multipliers[consumer]));
+                }
+            }
+        }
+
+        for (int c = 0; c < components.length; c++) {
+            for (int node : components[c]) {
+                if (node != 0 && multipliers[node] > 0) {
+                    nodes[node].setMultiplier(multipliers[node]);
+                }
+            }
+        }
+
+        return result();
+    }
+
+    /**
+     * 顶层配方的multiplier变化后增量更新
+     * 只把需求量的差值沿受影响的分量向下传播，multiplier没有变化的分量不会继续传播
+     * 没有上一次的求解结果或者数值溢出时退回完整求解
+     */
+    Result update(long topMultiplier) {
+        if (nodes.length == 0) return new Result(0, true);
+
+        nodes[0].setMultiplier(topMultiplier);
+        if (multipliers == null || overflowed) {
+            return solve();
+        }
+
+        long newTop = nodes[0].getResult().getMultiplier();
+        long oldTop = multipliers[0];
+        if (newTop == oldTop) {
+            return result();
+        }
+        multipliers[0] = newTop;
+
+        try {
+            BitSet dirty = new BitSet(components.length);
+            dirty.set(componentOf[0]);
+
+            // 生产者所在分量的下标总是大于消费者，按下标顺序处理即可保证需求量已经完整
+            long[] previous = new long[nodes.length];
+            for (int c = dirty.nextSetBit(0); c >= 0; c = dirty.nextSetBit(c + 1)) {
+                int[] members = components[c];
+                for (int node : members) {
+                    previous[node] = node == 0 ? oldTop : multipliers[node];
+                }
+
+                if (members.length == 1) {
+                    int node = members[0];
+                    if (node != 0) {
+                        multipliers[node] = multiplierFor(node, required[node]);
+                    }
+                } else {
+                    diverged[c] = !solveCycle(members, c);
+                }
+
+                for (int node : members) {
+                    if (multipliers[node] == previous[node]) continue;
+
+                    if (node != 0 && multipliers[node] > 0) {
+                        nodes[node].setMultiplier(multipliers[node]);
+                    }
+                    pushDelta(node, c, previous[node], multipliers[node], dirty);
+                }
+            }
+        } catch (ArithmeticException e) {
+            return solve();
+        }
+
+        return result();
+    }
+
+    /**
+     * 配方node的multiplier从oldMultiplier变为newMultiplier时，调整分量外提供者的需求量
+     */
+    private void pushDelta(int node, int component, long oldMultiplier, long newMultiplier, BitSet dirty) {
+        for (int k = 0; k < producers[node].length; k++) {
+            int producer = producers[node][k];
+            if (producer == NONE || componentOf[producer] == component) continue;
+
+            long delta = Math.multiplyExact(weights[node][k], newMultiplier - oldMultiplier);
+            required[producer] = Math.addExact(required[producer], delta);
+            dirty.set(componentOf[producer]);
+        }
+    }
+
+    /**
+     * 指定配方是否为顶层配方
+     */
+    boolean isTop(@Nullable RecipeSegment segment) {
+        return nodes.length > 0 && nodes[0] == segment;
+    }
+
+    private Result result() {
+        int cycleCount = 0;
+        boolean converged = true;
+        for (int c = 0; c < components.length; c++) {
+            if (components[c].length > 1) {
+                cycleCount++;
+                if (diverged[c]) {
+                    converged = false;
+                }
+            }
+        }
+        return new Result(cycleCount, converged);
+    }
+
+    /**
+     * 求解一个配方环：外部需求量固定，环内需求量随multiplier变化
+     * 从只满足外部需求开始单调递增地迭代，最多迭代MAX_CYCLE_ITERATIONS次
+     * 不收敛（环的产出覆盖不了自身消耗）时退回第一轮迭代的结果，避免数量被放大到上限
+     * @return 是否在上限内收敛
+     */
+    private boolean solveCycle(int[] members, int component) {
+        for (int node : members) {
+            if (node != 0) {
+                multipliers[node] = multiplierFor(node, required[node]);
+            }
+        }
+
+        long[] internal = new long[nodes.length];
+        long[] firstPass = null;
+        for (int iteration = 0; iteration < MAX_CYCLE_ITERATIONS; iteration++) {
+            for (int node : members) {
+                internal[node] = 0;
+            }
+            for (int consumer : members) {
+                for (int k = 0; k < producers[consumer].length; k++) {
+                    int producer = producers[consumer][k];
+                    if (producer == NONE || componentOf[producer] != component) continue;
+
+                    internal[producer] = saturatedAdd(internal[producer], demand(consumer, k, multipliers[consumer]));
+                }
+            }
+
+            boolean changed = false;
+            boolean saturated = false;
+            for (int node : members) {
+                if (node == 0) continue;
+
+                long multiplier = multiplierFor(node, saturatedAdd(required[node], internal[node]));
+                if (multiplier != multipliers[node]) {
+                    multipliers[node] = multiplier;
+                    changed = true;
+                }
+                if (multiplier == MAX_MULTIPLIER) {
+                    saturated = true;
+                }
+            }
+            if (!changed) {
+                return true;
+            }
+            if (firstPass == null) {
+                firstPass = new long[members.length];
+                for (int i = 0; i < members.length; i++) {
+                    firstPass[i] = multipliers[members[i]];
+                }
+            }
+            if (saturated) break;
+        }
+
+        for (int i = 0; i < members.length; i++) {
+            if (members[i] != 0) {
+                multipliers[members[i]] = firstPass[i];
+            }
+        }
+        return false;
+    }
+
+    private long multiplierFor(int node, long requiredAmount) {
+        long multiplier = Math.ceilDiv(requiredAmount, nodes[node].getResult().getFactor());
+        return Math.min(MAX_MULTIPLIER, multiplier);
+    }
+
+    private long demand(int consumer, int ingredient, long multiplier) {
+        long weight = weights[consumer][ingredient];
+        if (multiplier != 0 && weight > Long.MAX_VALUE / multiplier) {
+            overflowed = true;
+            return Long.MAX_VALUE;
+        }
+        return weight * multiplier;
+    }
+
+    private long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        if (sum < 0) {
+            overflowed = true;
+            return Long.MAX_VALUE;
+        }
+        return sum;
+    }
+
+    /**
+     * 从顶层配方出发的强连通分量（迭代版Tarjan算法）
+     * Tarjan按生产者在前的顺序产出分量，这里反转为消费者在前
+     */
+    private int[][] stronglyConnectedComponents() {
+        int size = nodes.length;
+        int[] index = new int[size];
+        int[] low = new int[size];
+        Arrays.fill(index, NONE);
+        boolean[] onStack = new boolean[size];
+        int[] stack = new int[size];
+        int stackSize = 0;
+        int[] callStack = new int[size];
+        int callDepth = 0;
+        int[] edgeCursor = new int[size];
+        int nextIndex = 0;
+
+        List<int[]> components = new ArrayList<>();
+
+        index[0] = low[0] = nextIndex++;
+        stack[stackSize++] = 0;
+        onStack[0] = true;
+        callStack[callDepth++] = 0;
+
+        while (callDepth > 0) {
+            int node = callStack[callDepth - 1];
+            if (edgeCursor[node] < producers[node].length) {
+                int producer = producers[node][edgeCursor[node]++];
+                if (producer == NONE) continue;
+
+                if (index[producer] == NONE) {
+                    index[producer] = low[producer] = nextIndex++;
+                    stack[stackSize++] = producer;
+                    onStack[producer] = true;
+                    callStack[callDepth++] = producer;
+                } else if (onStack[producer]) {
+                    low[node] = Math.min(low[node], index[producer]);
+                }
+            } else {
+                callDepth--;
+                if (callDepth > 0) {
+                    int parent = callStack[callDepth - 1];
+                    low[parent] = Math.min(low[parent], low[node]);
+                }
+                if (low[node] == index[node]) {
+                    int start = stackSize;
+                    do {
+                        start--;
+                        onStack[stack[start]] = false;
+                    } while (stack[start] != node);
+                    components.add(Arrays.copyOfRange(stack, start, stackSize));
+                    stackSize = start;
+                }
+            }
+        }
+
+        int[][] ordered = new int[components.size()][];
+        for (int i = 0; i < ordered.length; i++) {
+            ordered[i] = components.get(ordered.length - 1 - i);
+        }
+        return ordered;
+    }
+
+    /**
+     * 求解结果：配方环的数量，以及所有配方环是否都收敛
+     */
+    static final class Result {
+        final int cycleCount;
+        final boolean converged;
+
+        Result(int cycleCount, boolean converged) {
+            this.cycleCount = cycleCount;
+            this.converged = converged;
+        }
+    }
+}
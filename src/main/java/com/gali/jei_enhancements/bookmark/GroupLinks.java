@@ -0,0 +1,112 @@
+package com.gali.jei_enhancements.bookmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 组之间的逻辑链接（并查集）
+ *
+ * 由BookmarkGroup.linkedGroupId推导而来，linkedGroupId链接在一起的组属于同一个逻辑组。
+ * 合并按大小进行并带路径压缩，查询逻辑组几乎是常数时间。
+ * 并查集不支持拆分，取消链接后由BookmarkManager重新建立。
+ */
+class GroupLinks {
+
+    // groupId -> 父节点，不在表中的组自成一个逻辑组
+    private final Map<Integer, Integer> parent = new HashMap<>();
+
+    // 根节点 -> 逻辑组内的所有组ID
+    private final Map<Integer, List<Integer>> members = new HashMap<>();
+
+    // 每次合并或重建时递增，用于判断缓存的逻辑组是否还有效
+    private int version = 0;
+
+    /**
+     * 查找组所在逻辑组的根节点
+     */
+    int find(int groupId) {
+        Integer next = parent.get(groupId);
+        if (next == null) {
+            return groupId;
+        }
+
+        // 路径减半：沿途每个节点改为指向祖父节点
+        int node = groupId;
+        while (next != node) {
+            int grandParent = parent.get(next);
+            parent.put(node, grandParent);
+            node = grandParent;
+            next = parent.get(node);
+        }
+        return node;
+    }
+
+    /**
+     * 合并两个组所在的逻辑组
+     * @return 是否发生了合并（原本不在同一个逻辑组）
+     */
+    boolean union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) {
+            return false;
+        }
+
+        List<Integer> membersA = membersOf(rootA);
+        List<Integer> membersB = membersOf(rootB);
+        if (membersA.size() < membersB.size()) {
+            int root = rootA;
+            rootA = rootB;
+            rootB = root;
+            List<Integer> list = membersA;
+            membersA = membersB;
+            membersB = list;
+        }
+
+        // 小的逻辑组挂到大的逻辑组下
+        parent.put(rootA, rootA);
+        parent.put(rootB, rootA);
+        membersA.addAll(membersB);
+        members.put(rootA, membersA);
+        members.remove(rootB);
+        version++;
+        return true;
+    }
+
+    /**
+     * 两个组是否属于同一个逻辑组
+     */
+    boolean isLinked(int a, int b) {
+        return find(a) == find(b);
+    }
+
+    /**
+     * 组所在逻辑组的所有组ID（包括自身，只读）
+     */
+    List<Integer> getMembers(int groupId) {
+        List<Integer> list = members.get(find(groupId));
+        return list != null ? Collections.unmodifiableList(list) : List.of(groupId);
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    void clear() {
+        parent.clear();
+        members.clear();
+        version++;
+    }
+
+    private List<Integer> membersOf(int root) {
+        List<Integer> list = members.get(root);
+        if (list == null) {
+            list = new ArrayList<>();
+            list.add(root);
+        }
+        return list;
+    }
+}
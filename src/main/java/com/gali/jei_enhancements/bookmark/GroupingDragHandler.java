@@ -2,6 +2,7 @@ package com.gali.jei_enhancements.bookmark;
 
 import mezz.jei.gui.overlay.IngredientListSlot;
 import net.minecraft.client.gui.GuiGraphics;
+import net.minecraft.client.gui.screens.Screen;
 
 import java.util.*;
 
@@ -12,6 +13,7 @@ import java.util.*;
  * - 左键拖动：将多行连接成一个组（改变groupId，不是真正合并）
  * - 右键拖动：将行从组中排除
  * - 右键点击组面板：切换crafting chain模式（[变绿）
+ * - Shift + 左键拖动：向下链接组（逻辑同组，crafting chain跨组计算），向上取消链接
  * - 各组头保留，只是逻辑上属于同一个组
  */
 public class GroupingDragHandler {
@@ -23,13 +25,17 @@ public class GroupingDragHandler {
     
     // 颜色定义（NEI风格）
     private static final int GROUP_CHAIN_COLOR = 0xFF45DA75;  // 绿色 - crafting chain模式
+    private static final int GROUP_CYCLE_COLOR = 0xFFE0B040;  // 黄色 - crafting chain中存在收敛的配方环
+    private static final int GROUP_DIVERGED_COLOR = 0xFFE05050; // 红色 - crafting chain中的配方环不收敛
     private static final int GROUP_NONE_COLOR = 0xFF666666;   // 灰色 - 普通组
     private static final int HIGHLIGHT_COLOR = 0x80FFFFFF;    // 高亮色
     private static final int DRAG_COLOR = 0x6045DA75;         // 拖动高亮色
+    private static final int LINK_DRAG_COLOR = 0x60AAAAAA;    // 链接拖动高亮色
     
     // 拖动状态
     private boolean isDragging = false;
     private int dragButton = -1;  // 0=左键, 1=右键
+    private boolean linkMode = false;  // Shift + 左键：链接/取消链接组
     private int startRowIndex = -1;
     private int endRowIndex = -1;
     private int startGroupId = BookmarkManager.DEFAULT_GROUP_ID;
@@ -41,9 +47,6 @@ public class GroupingDragHandler {
     private int columns = 1;
     private int rows = 1;
     
-    // 行到组ID的映射（用于预览）
-    private Map<Integer, Integer> rowToGroupId = new HashMap<>();
-    
     public static GroupingDragHandler getInstance() {
         return INSTANCE;
     }
@@ -57,6 +60,7 @@ public class GroupingDragHandler {
         this.slotHeight = slotHeight;
         this.columns = columns;
         this.rows = rows;
+        BookmarkOverlayGeometry.getInstance().setGrid(x, y, columns, rows);
     }
     
     /**
@@ -108,10 +112,8 @@ public class GroupingDragHandler {
                     // 只切换当前组的crafting chain状态
                     group.toggleCraftingChain();
                     
-                    // 如果开启了crafting chain，立即计算组内配方的数量关系
-                    if (group.isCraftingChainEnabled()) {
-                        manager.recalculateCraftingChainInGroup(item.getGroupId());
-                    }
+                    // 立即重新计算所在逻辑组的配方数量关系（关闭时其余链接组也需要重新计算）
+                    manager.recalculateCraftingChainInGroup(item.getGroupId());
                     
                     manager.save();
                     return true;
@@ -142,9 +144,6 @@ public class GroupingDragHandler {
             return false;
         }
         
-        // 构建当前的行到组ID映射
-        buildRowToGroupIdMap(slots);
-        
         int groupId = item.getGroupId();
 
         // 左键：如果在默认组，创建新组(Integer.MIN_VALUE)；否则使用当前组ID
@@ -153,6 +152,7 @@ public class GroupingDragHandler {
             // 左键拖动
             isDragging = true;
             dragButton = 0;
+            linkMode = Screen.hasShiftDown();
             startRowIndex = rowIndex;
             endRowIndex = rowIndex;
             startGroupId = (groupId == BookmarkManager.DEFAULT_GROUP_ID) ? Integer.MIN_VALUE : groupId;
@@ -196,7 +196,14 @@ public class GroupingDragHandler {
         int minRow = Math.min(startRowIndex, endRowIndex);
         int maxRow = Math.max(startRowIndex, endRowIndex);
         
-        if (dragButton == 0) {
+        if (dragButton == 0 && linkMode) {
+            // Shift + 左键拖动：从上往下链接组，从下往上取消链接
+            if (startRowIndex <= endRowIndex) {
+                linkGroupsInRows(minRow, maxRow, slots);
+            } else {
+                unlinkGroupsInRows(minRow, maxRow, slots);
+            }
+        } else if (dragButton == 0) {
             // 左键拖动
             if (startRowIndex <= endRowIndex) {
                 // 从上往下拖动：合并组
@@ -226,46 +233,23 @@ public class GroupingDragHandler {
         endRowIndex = -1;
         startGroupId = BookmarkManager.DEFAULT_GROUP_ID;
         dragButton = -1;
-        rowToGroupId.clear();
-    }
-    
-    /**
-     * 构建行到组ID的映射
-     */
-    private void buildRowToGroupIdMap(List<IngredientListSlot> slots) {
-        rowToGroupId.clear();
-        BookmarkManager manager = BookmarkManager.getInstance();
-        
-        for (int row = 0; row < rows; row++) {
-            BookmarkItem item = findBookmarkItemAtRow(row, slots);
-            if (item != null) {
-                rowToGroupId.put(row, item.getGroupId());
-            } else {
-                rowToGroupId.put(row, BookmarkManager.DEFAULT_GROUP_ID);
-            }
-        }
+        linkMode = false;
     }
     
     /**
      * 查找指定行的书签项
      */
     private BookmarkItem findBookmarkItemAtRow(int rowIndex, List<IngredientListSlot> slots) {
-        BookmarkManager manager = BookmarkManager.getInstance();
+        BookmarkSlotTable table = BookmarkSlotTable.getInstance();
+        table.update(slots);
         
         int startSlot = rowIndex * columns;
-        int endSlot = startSlot + columns;
-        
-        for (int i = startSlot; i < endSlot && i < slots.size(); i++) {
-            IngredientListSlot slot = slots.get(i);
-            if (slot.getOptionalElement().isPresent()) {
-                var element = slot.getOptionalElement().get();
-                var bookmarkOpt = element.getBookmark();
-                if (bookmarkOpt.isPresent()) {
-                    BookmarkItem item = manager.findBookmarkItem(bookmarkOpt.get());
-                    if (item != null) {
-                        return item;
-                    }
-                }
+        int endSlot = Math.min(startSlot + columns, table.size());
+        
+        for (int i = startSlot; i < endSlot; i++) {
+            BookmarkItem item = table.getItem(i);
+            if (item != null) {
+                return item;
             }
         }
         
@@ -283,13 +267,10 @@ public class GroupingDragHandler {
         List<BookmarkItem> affectedItems = new ArrayList<>();
         Set<Integer> existingGroupIds = new LinkedHashSet<>();
         
-        for (int row = minRow; row <= maxRow; row++) {
-            List<BookmarkItem> rowItems = findAllBookmarkItemsAtRow(row, slots);
-            for (BookmarkItem item : rowItems) {
-                affectedItems.add(item);
-                if (item.getGroupId() != BookmarkManager.DEFAULT_GROUP_ID) {
-                    existingGroupIds.add(item.getGroupId());
-                }
+        for (BookmarkItem item : findAllBookmarkItemsInRows(minRow, maxRow, slots)) {
+            affectedItems.add(item);
+            if (item.getGroupId() != BookmarkManager.DEFAULT_GROUP_ID) {
+                existingGroupIds.add(item.getGroupId());
             }
         }
         
@@ -329,30 +310,84 @@ public class GroupingDragHandler {
     }
     
     /**
-     * 查找指定行的所有书签项（不只是第一个）
+     * 链接选中行涉及的所有组（Shift + 左键从上往下拖动）
+     * 组本身不变，只是成为同一个逻辑组
      */
-    private List<BookmarkItem> findAllBookmarkItemsAtRow(int rowIndex, List<IngredientListSlot> slots) {
-        List<BookmarkItem> result = new ArrayList<>();
+    private void linkGroupsInRows(int minRow, int maxRow, List<IngredientListSlot> slots) {
         BookmarkManager manager = BookmarkManager.getInstance();
+        Set<Integer> groupIds = collectGroupIdsInRows(minRow, maxRow, slots);
+        if (groupIds.size() < 2) {
+            return;
+        }
         
-        int startSlot = rowIndex * columns;
-        int endSlot = startSlot + columns;
-        
-        for (int i = startSlot; i < endSlot && i < slots.size(); i++) {
-            IngredientListSlot slot = slots.get(i);
-            if (slot.getOptionalElement().isPresent()) {
-                var element = slot.getOptionalElement().get();
-                var bookmarkOpt = element.getBookmark();
-                if (bookmarkOpt.isPresent()) {
-                    BookmarkItem item = manager.findBookmarkItem(bookmarkOpt.get());
-                    if (item != null && !result.contains(item)) {
-                        result.add(item);
-                    }
+        manager.linkGroups(groupIds);
+        manager.save();
+    }
+    
+    /**
+     * 取消选中行涉及的组的链接（Shift + 左键从下往上拖动）
+     */
+    private void unlinkGroupsInRows(int minRow, int maxRow, List<IngredientListSlot> slots) {
+        BookmarkManager manager = BookmarkManager.getInstance();
+        Set<Integer> groupIds = collectGroupIdsInRows(minRow, maxRow, slots);
+        if (groupIds.isEmpty()) {
+            return;
+        }
+        
+        manager.unlinkGroups(groupIds);
+        manager.save();
+    }
+    
+    /**
+     * 选中行涉及的非默认组ID（按出现顺序）
+     */
+    private Set<Integer> collectGroupIdsInRows(int minRow, int maxRow, List<IngredientListSlot> slots) {
+        Set<Integer> groupIds = new LinkedHashSet<>();
+        for (BookmarkItem item : findAllBookmarkItemsInRows(minRow, maxRow, slots)) {
+            if (item.getGroupId() != BookmarkManager.DEFAULT_GROUP_ID) {
+                groupIds.add(item.getGroupId());
+            }
+        }
+        return groupIds;
+    }
+    
+    /**
+     * 查找选中屏幕行涉及的所有书签项（按列表顺序，不重复）
+     * 屏幕行里的元素按BookmarkRowModel扩展到整个逻辑行，一个配方换行显示时也会被完整选中
+     */
+    private List<BookmarkItem> findAllBookmarkItemsInRows(int minRow, int maxRow, List<IngredientListSlot> slots) {
+        Set<BookmarkItem> result = new LinkedHashSet<>();
+        BookmarkSlotTable table = BookmarkSlotTable.getInstance();
+        table.update(slots);
+        BookmarkRowModel rowModel = BookmarkRowModel.getInstance();
+        
+        int startSlot = minRow * columns;
+        int endSlot = Math.min((maxRow + 1) * columns, table.size());
+        int lastModelRow = -1;
+        
+        for (int i = startSlot; i < endSlot; i++) {
+            int modelRow = rowModel.getRowOf(table.getElement(i));
+            if (modelRow < 0) {
+                // 不在行模型中（例如非书签元素），只取槽位本身
+                BookmarkItem item = table.getItem(i);
+                if (item != null) {
+                    result.add(item);
+                }
+                continue;
+            }
+            if (modelRow == lastModelRow) continue;
+            lastModelRow = modelRow;
+            
+            int rowSize = rowModel.getRowSize(modelRow);
+            for (int k = 0; k < rowSize; k++) {
+                BookmarkItem item = rowModel.getRowItem(modelRow, k);
+                if (item != null) {
+                    result.add(item);
                 }
             }
         }
         
-        return result;
+        return new ArrayList<>(result);
     }
     
     /**
@@ -363,13 +398,10 @@ public class GroupingDragHandler {
         BookmarkManager manager = BookmarkManager.getInstance();
         Set<Integer> affectedGroupIds = new HashSet<>();
         
-        for (int row = minRow; row <= maxRow; row++) {
-            List<BookmarkItem> rowItems = findAllBookmarkItemsAtRow(row, slots);
-            for (BookmarkItem item : rowItems) {
-                if (item.getGroupId() != BookmarkManager.DEFAULT_GROUP_ID) {
-                    affectedGroupIds.add(item.getGroupId());
-                    item.setGroupId(BookmarkManager.DEFAULT_GROUP_ID);
-                }
+        for (BookmarkItem item : findAllBookmarkItemsInRows(minRow, maxRow, slots)) {
+            if (item.getGroupId() != BookmarkManager.DEFAULT_GROUP_ID) {
+                affectedGroupIds.add(item.getGroupId());
+                item.setGroupId(BookmarkManager.DEFAULT_GROUP_ID);
             }
         }
         
@@ -395,19 +427,16 @@ public class GroupingDragHandler {
         List<List<BookmarkItem>> recipes = new ArrayList<>();
         List<BookmarkItem> currentRecipe = null;
         
-        for (int row = minRow; row <= maxRow; row++) {
-            List<BookmarkItem> rowItems = findAllBookmarkItemsAtRow(row, slots);
-            for (BookmarkItem item : rowItems) {
-                if (item.isOutput()) {
-                    // 新配方开始
-                    if (currentRecipe != null && !currentRecipe.isEmpty()) {
-                        recipes.add(currentRecipe);
-                    }
-                    currentRecipe = new ArrayList<>();
-                    currentRecipe.add(item);
-                } else if (item.isIngredient() && currentRecipe != null) {
-                    currentRecipe.add(item);
+        for (BookmarkItem item : findAllBookmarkItemsInRows(minRow, maxRow, slots)) {
+            if (item.isOutput()) {
+                // 新配方开始
+                if (currentRecipe != null && !currentRecipe.isEmpty()) {
+                    recipes.add(currentRecipe);
                 }
+                currentRecipe = new ArrayList<>();
+                currentRecipe.add(item);
+            } else if (item.isIngredient() && currentRecipe != null) {
+                currentRecipe.add(item);
             }
         }
         
@@ -457,25 +486,18 @@ public class GroupingDragHandler {
             return;
         }
         
-        BookmarkManager manager = BookmarkManager.getInstance();
+        BookmarkOverlayGeometry geometry = BookmarkOverlayGeometry.getInstance();
+        BookmarkSlotTable.getInstance().update(slots);
         
-        // 构建行到组ID的映射
-        Map<Integer, Integer> currentRowToGroupId = new HashMap<>();
-        for (int row = 0; row < rows; row++) {
-            BookmarkItem item = findBookmarkItemAtRow(row, slots);
-            if (item != null) {
-                currentRowToGroupId.put(row, item.getGroupId());
-            }
-        }
-        
-        // 如果正在拖动，应用预览效果
-        if (isDragging) {
-            currentRowToGroupId = applyDragPreview(currentRowToGroupId);
+        // 如果正在拖动，应用预览效果（链接不改变组，不需要预览）；否则直接使用保存的括号
+        if (isDragging && !linkMode) {
+            int[] preview = applyDragPreview(geometry.getRowGroupIds(), slots);
+            renderGroupBrackets(guiGraphics, BookmarkOverlayGeometry.computeBrackets(preview, new int[0]),
+                    BookmarkOverlayGeometry.countBrackets(preview));
+        } else {
+            renderGroupBrackets(guiGraphics, geometry.getBrackets(), geometry.getBracketCount());
         }
         
-        // 渲染组括号
-        renderGroupBrackets(guiGraphics, currentRowToGroupId, manager);
-        
         // 渲染拖动高亮
         if (isDragging) {
             renderDragHighlight(guiGraphics);
@@ -489,17 +511,17 @@ public class GroupingDragHandler {
     }
     
     /**
-     * 应用拖动预览效果
+     * 应用拖动预览效果：拖动范围内有书签的行归入起始组
      */
-    private Map<Integer, Integer> applyDragPreview(Map<Integer, Integer> original) {
-        Map<Integer, Integer> preview = new HashMap<>(original);
+    private int[] applyDragPreview(int[] original, List<IngredientListSlot> slots) {
+        int[] preview = original.clone();
         
         int minRow = Math.min(startRowIndex, endRowIndex);
-        int maxRow = Math.max(startRowIndex, endRowIndex);
+        int maxRow = Math.min(Math.max(startRowIndex, endRowIndex), preview.length - 1);
         
-        for (int row = minRow; row <= maxRow; row++) {
-            if (preview.containsKey(row)) {
-                preview.put(row, startGroupId);
+        for (int row = Math.max(minRow, 0); row <= maxRow; row++) {
+            if (findBookmarkItemAtRow(row, slots) != null) {
+                preview[row] = startGroupId;
             }
         }
         
@@ -508,70 +530,38 @@ public class GroupingDragHandler {
     
     /**
      * 渲染组括号
-     * NEI风格：每个RESULT开头的子组画单独的括号
+     * NEI风格：每个连续的子组画单独的括号
      * 同一个groupId的子组用相同颜色，表示它们是逻辑同组
      */
-    private void renderGroupBrackets(GuiGraphics guiGraphics, Map<Integer, Integer> rowToGroupId, BookmarkManager manager) {
-        // 找出每个子组的行范围（以RESULT开头的连续行）
-        List<int[]> subGroupRanges = new ArrayList<>();  // [startRow, endRow, groupId]
-        
-        int currentSubGroupStart = -1;
-        int currentGroupId = BookmarkManager.DEFAULT_GROUP_ID;
-        
-        for (int row = 0; row < rows; row++) {
-            Integer groupId = rowToGroupId.get(row);
-            
-            if (groupId != null && groupId != BookmarkManager.DEFAULT_GROUP_ID) {
-                if (currentSubGroupStart == -1) {
-                    // 开始新的子组
-                    currentSubGroupStart = row;
-                    currentGroupId = groupId;
-                } else if (groupId.equals(currentGroupId)) {
-                    // 继续当前子组（同一个groupId的连续行）
-                } else {
-                    // 不同的groupId，结束当前子组，开始新的
-                    subGroupRanges.add(new int[]{currentSubGroupStart, row - 1, currentGroupId});
-                    currentSubGroupStart = row;
-                    currentGroupId = groupId;
-                }
-            } else {
-                // 默认组或空行
-                if (currentSubGroupStart != -1) {
-                    // 结束当前子组
-                    subGroupRanges.add(new int[]{currentSubGroupStart, row - 1, currentGroupId});
-                    currentSubGroupStart = -1;
-                    currentGroupId = BookmarkManager.DEFAULT_GROUP_ID;
-                }
-            }
+    private void renderGroupBrackets(GuiGraphics guiGraphics, int[] brackets, int count) {
+        for (int i = 0; i < count; i++) {
+            int base = i * 3;
+            drawGroupBracket(guiGraphics, brackets[base], brackets[base + 1], brackets[base + 2]);
         }
-        
-        // 处理最后一个子组
-        if (currentSubGroupStart != -1) {
-            subGroupRanges.add(new int[]{currentSubGroupStart, rows - 1, currentGroupId});
-        }
-        
-        // 绘制每个子组的括号
-        for (int[] range : subGroupRanges) {
-            int startRow = range[0];
-            int endRow = range[1];
-            int groupId = range[2];
-            
-            // 确定颜色
-            BookmarkGroup group = manager.getGroup(groupId);
-            int color;
-            if (groupId == Integer.MIN_VALUE) {
-                // 预览中的新组
-                color = DRAG_COLOR;
-            } else if (group != null && group.isCraftingChainEnabled()) {
-                color = GROUP_CHAIN_COLOR;  // 绿色 - crafting chain模式
-            } else if (group != null && group.hasLink()) {
-                color = 0xFFAAAAAA;  // 浅灰色 - 有链接但未开启crafting chain
+    }
+    
+    /**
+     * 组括号的颜色
+     */
+    static int getBracketColor(BookmarkManager manager, int groupId) {
+        if (groupId == Integer.MIN_VALUE) {
+            // 预览中的新组
+            return DRAG_COLOR;
+        }
+        
+        BookmarkGroup group = manager.getGroup(groupId);
+        if (group != null && group.isCraftingChainEnabled()) {
+            if (!group.hasChainCycles()) {
+                return GROUP_CHAIN_COLOR;  // 绿色 - crafting chain模式
+            } else if (group.isChainConverged()) {
+                return GROUP_CYCLE_COLOR;
             } else {
-                color = GROUP_NONE_COLOR;   // 深灰色 - 普通组
+                return GROUP_DIVERGED_COLOR;
             }
-            
-            drawGroupBracket(guiGraphics, startRow, endRow, color);
+        } else if (group != null && group.hasLink()) {
+            return 0xFFAAAAAA;  // 浅灰色 - 有链接但未开启crafting chain
         }
+        return GROUP_NONE_COLOR;   // 深灰色 - 普通组
     }
     
     /**
@@ -602,7 +592,7 @@ public class GroupingDragHandler {
         int minRow = Math.min(startRowIndex, endRowIndex);
         int maxRow = Math.max(startRowIndex, endRowIndex);
         
-        int color = (dragButton == 0) ? DRAG_COLOR : 0x60FF4444;  // 左键绿色，右键红色
+        int color = (dragButton == 0) ? (linkMode ? LINK_DRAG_COLOR : DRAG_COLOR) : 0x60FF4444;  // 左键绿色（链接为灰色），右键红色
         
         for (int row = minRow; row <= maxRow; row++) {
             renderRowHighlight(guiGraphics, row, color);
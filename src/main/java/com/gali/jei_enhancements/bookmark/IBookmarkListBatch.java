@@ -0,0 +1,15 @@
+package com.gali.jei_enhancements.bookmark;
+
+/**
+ * BookmarkListMixin添加的批量修改接口
+ *
+ * beginBatch()和commitBatch()之间对BookmarkList的添加、删除、移动不会通知JEI的监听器，
+ * BookmarkManager的关联和保存也推迟到commitBatch()，最后只通知一次、保存一次。
+ * 使用时需要先转换为Object：(IBookmarkListBatch) (Object) bookmarkList
+ */
+public interface IBookmarkListBatch {
+    
+    void jei_enhancements$beginBatch();
+    
+    void jei_enhancements$commitBatch();
+}
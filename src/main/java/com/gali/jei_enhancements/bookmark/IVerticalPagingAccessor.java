@@ -1,13 +1,11 @@
 package com.gali.jei_enhancements.bookmark;
 
-import java.util.List;
-
 /**
  * 用于访问IngredientGridWithNavigationMixin添加的方法
  */
 public interface IVerticalPagingAccessor {
     
-    List<int[]> jei_enhancements$getGroupRanges();
+    int jei_enhancements$getGroupCount();
     
     int jei_enhancements$getRowsPerPage();
     
@@ -18,4 +16,6 @@ public interface IVerticalPagingAccessor {
     boolean jei_enhancements$nextPage();
     
     boolean jei_enhancements$previousPage();
+    
+    boolean jei_enhancements$scrollRows(int rows);
 }
@@ -0,0 +1,77 @@
+package com.gali.jei_enhancements.bookmark;
+
+import mezz.jei.api.ingredients.ITypedIngredient;
+import mezz.jei.gui.bookmarks.IngredientBookmark;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+
+/**
+ * 复制JEI的IngredientBookmark实例（同一物品的多个书签需要各自独立的实例）
+ *
+ * IngredientBookmark的uid字段和构造函数都不是公开的，这里在类加载时解析一次，
+ * 转换成static final的MethodHandle，之后每次复制与直接调用构造函数的开销相当。
+ * JEI内部结构变化导致解析失败时，verify()在客户端初始化时直接报错，而不是等到第一次复制书签。
+ */
+public final class IngredientBookmarkCloner {
+
+    private static final MethodHandle UID_GETTER;
+    private static final MethodHandle CONSTRUCTOR;
+    private static final Throwable FAILURE;
+
+    static {
+        MethodHandle uidGetter = null;
+        MethodHandle constructor = null;
+        Throwable failure = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+            Field uidField = IngredientBookmark.class.getDeclaredField("uid");
+            uidField.setAccessible(true);
+            uidGetter = lookup.unreflectGetter(uidField)
+                    .asType(MethodType.methodType(Object.class, IngredientBookmark.class));
+
+            Constructor<?> ctor = IngredientBookmark.class.getDeclaredConstructor(ITypedIngredient.class, Object.class);
+            ctor.setAccessible(true);
+            constructor = lookup.unreflectConstructor(ctor)
+                    .asType(MethodType.methodType(IngredientBookmark.class, ITypedIngredient.class, Object.class));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            uidGetter = null;
+            constructor = null;
+            failure = e;
+        }
+        UID_GETTER = uidGetter;
+        CONSTRUCTOR = constructor;
+        FAILURE = failure;
+    }
+
+    private IngredientBookmarkCloner() {
+    }
+
+    /**
+     * 检查是否能访问IngredientBookmark的内部结构，不能时抛出异常
+     */
+    public static void verify() {
+        if (FAILURE != null) {
+            throw new IllegalStateException("Incompatible JEI version: cannot access IngredientBookmark internals", FAILURE);
+        }
+    }
+
+    /**
+     * 用相同的材料和uid创建一个新的书签实例
+     */
+    public static IngredientBookmark<?> clone(IngredientBookmark<?> original) {
+        verify();
+        try {
+            Object uid = (Object) UID_GETTER.invokeExact((IngredientBookmark<?>) original);
+            return (IngredientBookmark<?>) CONSTRUCTOR.invokeExact((ITypedIngredient<?>) original.getIngredient(), uid);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Failed to clone bookmark", t);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.gali.jei_enhancements.bookmark;
+
+import net.minecraft.client.gui.Font;
+
+import java.util.Arrays;
+
+/**
+ * 书签数量文字的格式化和缓存
+ *
+ * 格式与原来的String.format相同（1.2M、15k、1.5k、999，流体加L后缀），
+ * 四舍五入为half-up，小数点固定为'.'，不受系统区域设置影响。
+ * 格式化写入复用的char数组，结果和测量好的宽度按(数量, 是否流体)存入直接映射的缓存，
+ * 同一页上的数量不变时每帧不再分配字符串或测量宽度。
+ */
+final class QuantityLabelCache {
+
+    // 缓存大小（2的幂），一页书签的数量种类通常远少于这个值
+    private static final int CACHE_SIZE = 256;
+
+    // 空位置的键：键由int数量左移一位得到，范围在[-2^32, 2^32]之内，不会等于Long.MIN_VALUE
+    // （-1不能用作空键，数量为-1的流体的键正好是-1）
+    private static final long EMPTY_KEY = Long.MIN_VALUE;
+
+    private static final long[] keys = new long[CACHE_SIZE];
+    private static final String[] labels = new String[CACHE_SIZE];
+    private static final int[] widths = new int[CACHE_SIZE];
+
+    // 测量宽度时使用的字体，字体变化（资源重载）时清空缓存
+    private static Font cachedFont;
+
+    // 格式化用的缓冲区，int最大值加上后缀也不会超过
+    private static final char[] buffer = new char[16];
+
+    static {
+        Arrays.fill(keys, EMPTY_KEY);
+    }
+
+    private QuantityLabelCache() {
+    }
+
+    /**
+     * 查询数量对应的文字，不在缓存中时格式化并测量宽度
+     * @return 缓存位置，用getLabel()/getWidth()读取
+     */
+    static int lookup(Font font, int quantity, boolean isFluid) {
+        if (font != cachedFont) {
+            Arrays.fill(keys, EMPTY_KEY);
+            cachedFont = font;
+        }
+
+        long key = ((long) quantity << 1) | (isFluid ? 1 : 0);
+        int index = (int) (mix(key) & (CACHE_SIZE - 1));
+        if (keys[index] != key) {
+            labels[index] = format(quantity, isFluid);
+            widths[index] = font.width(labels[index]);
+            keys[index] = key;
+        }
+        return index;
+    }
+
+    static String getLabel(int index) {
+        return labels[index];
+    }
+
+    static int getWidth(int index) {
+        return widths[index];
+    }
+
+    /**
+     * 格式化数量显示
+     * @param quantity 数量
+     * @param isFluid 是否是流体/化学品
+     */
+    static String format(int quantity, boolean isFluid) {
+        int length;
+        if (quantity >= 1000000) {
+            length = writeTenths(((long) quantity + 50000) / 100000, 0);
+            buffer[length++] = 'M';
+        } else if (quantity >= 10000) {
+            length = writeLong((quantity + 500) / 1000, 0);
+            buffer[length++] = 'k';
+        } else if (quantity >= 1000) {
+            length = writeTenths((quantity + 50) / 100, 0);
+            buffer[length++] = 'k';
+        } else {
+            length = writeLong(quantity, 0);
+        }
+
+        if (isFluid) {
+            buffer[length++] = 'L';
+        }
+        return new String(buffer, 0, length);
+    }
+
+    /**
+     * 写出以十分之一为单位的值（例如15写成1.5）
+     */
+    private static int writeTenths(long tenths, int offset) {
+        int length = writeLong(tenths / 10, offset);
+        buffer[length++] = '.';
+        buffer[length++] = (char) ('0' + tenths % 10);
+        return length;
+    }
+
+    /**
+     * 写出整数，返回写入后的位置
+     */
+    private static int writeLong(long value, int offset) {
+        if (value < 0) {
+            buffer[offset++] = '-';
+            value = -value;
+        }
+
+        int start = offset;
+        do {
+            buffer[offset++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+
+        // 反转数字顺序
+        for (int i = start, j = offset - 1; i < j; i++, j--) {
+            char c = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = c;
+        }
+        return offset;
+    }
+
+    private static long mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return key ^ (key >>> 32);
+    }
+}
@@ -0,0 +1,69 @@
+package com.gali.jei_enhancements.bookmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 组内的一个配方：一个RESULT以及紧跟其后的INGREDIENT（直到下一个RESULT）
+ * 由BookmarkManager根据组内顺序维护，组内容或类型变化后会重新生成
+ */
+public class RecipeSegment {
+
+    private final BookmarkItem result;
+    private final List<BookmarkItem> ingredients = new ArrayList<>();
+    private final List<BookmarkItem> ingredientsView = Collections.unmodifiableList(ingredients);
+
+    // 上一次求解crafting chain时，这个配方是否处在配方环中
+    private boolean inCycle = false;
+
+    RecipeSegment(BookmarkItem result) {
+        this.result = result;
+    }
+
+    void addIngredient(BookmarkItem ingredient) {
+        ingredients.add(ingredient);
+    }
+
+    /**
+     * 配方的输出（组头）
+     */
+    public BookmarkItem getResult() {
+        return result;
+    }
+
+    /**
+     * 配方的输入（只读）
+     */
+    public List<BookmarkItem> getIngredients() {
+        return ingredientsView;
+    }
+
+    /**
+     * 配方的所有成员数量（RESULT + INGREDIENT）
+     */
+    public int size() {
+        return ingredients.size() + 1;
+    }
+
+    /**
+     * 是否处在配方环中（由CraftingChainSolver标记）
+     */
+    public boolean isInCycle() {
+        return inCycle;
+    }
+
+    void setInCycle(boolean inCycle) {
+        this.inCycle = inCycle;
+    }
+
+    /**
+     * 设置整个配方（RESULT及其INGREDIENT）的multiplier
+     */
+    public void setMultiplier(long multiplier) {
+        result.setMultiplier(multiplier);
+        for (BookmarkItem ingredient : ingredients) {
+            ingredient.setMultiplier(multiplier);
+        }
+    }
+}
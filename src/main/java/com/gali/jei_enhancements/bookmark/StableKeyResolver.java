@@ -0,0 +1,167 @@
+package com.gali.jei_enhancements.bookmark;
+
+import com.gali.jei_enhancements.JEIEnhancements;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Optional;
+
+/**
+ * 获取流体、化学物质等非物品材料的稳定key（注册名称）
+ *
+ * 这些类型来自其他模组，只能通过反射访问：
+ * - FluidStack：getFluid().builtInRegistryHolder().key().location()
+ * - Mekanism ChemicalStack：getChemical()（或getType()）.getRegistryName()，
+ *   没有getRegistryName时使用builtInRegistryHolder().key().location()
+ *
+ * 每个材料类只在第一次遇到时判断一次使用哪种解析方式，并把第一步解析成MethodHandle，
+ * 不支持的类也会记录下来（NONE），之后不再尝试。
+ * 后续步骤的接收者类型随流体/化学物质而变化，按各自的类缓存查找到的方法（找不到的同样缓存），
+ * 因此每次计算key只剩几次MethodHandle调用，不再有getMethod和类名匹配。
+ */
+final class StableKeyResolver {
+
+    @FunctionalInterface
+    private interface Resolver {
+        @Nullable
+        String resolve(Object obj) throws Throwable;
+    }
+
+    private static final Resolver NONE = obj -> null;
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static final MethodCache GET_FLUID = new MethodCache("getFluid");
+    private static final MethodCache GET_CHEMICAL = new MethodCache("getChemical");
+    private static final MethodCache GET_TYPE = new MethodCache("getType");
+    private static final MethodCache GET_REGISTRY_NAME = new MethodCache("getRegistryName");
+    private static final MethodCache BUILT_IN_REGISTRY_HOLDER = new MethodCache("builtInRegistryHolder");
+    private static final MethodCache KEY = new MethodCache("key");
+    private static final MethodCache LOCATION = new MethodCache("location");
+
+    // 材料类 -> 解析方式
+    private static final ClassValue<Resolver> RESOLVERS = new ClassValue<>() {
+        @Override
+        protected Resolver computeValue(Class<?> type) {
+            return createResolver(type);
+        }
+    };
+
+    private StableKeyResolver() {
+    }
+
+    /**
+     * 获取对象的稳定key，不支持的类型返回null
+     */
+    @Nullable
+    static String getStableKey(Object obj) {
+        Resolver resolver = RESOLVERS.get(obj.getClass());
+        if (resolver == NONE) {
+            return null;
+        }
+        try {
+            return resolver.resolve(obj);
+        } catch (Throwable t) {
+            // 调用失败，返回null使用回退方案
+            JEIEnhancements.LOGGER.debug("Failed to get stable key for object: " + obj.getClass().getName(), t);
+            return null;
+        }
+    }
+
+    private static Resolver createResolver(Class<?> type) {
+        String name = type.getName();
+
+        // NeoForge FluidStack
+        if (name.contains("FluidStack")) {
+            MethodHandle getFluid = GET_FLUID.get(type).orElse(null);
+            if (getFluid == null) {
+                return NONE;
+            }
+            return obj -> {
+                Object fluid = (Object) getFluid.invokeExact(obj);
+                return fluid != null ? getRegistryLocation(fluid) : null;
+            };
+        }
+
+        // Mekanism ChemicalStack
+        if (name.contains("ChemicalStack")) {
+            MethodHandle getChemical = GET_CHEMICAL.get(type).or(() -> GET_TYPE.get(type)).orElse(null);
+            if (getChemical == null) {
+                return NONE;
+            }
+            return obj -> {
+                Object chemical = (Object) getChemical.invokeExact(obj);
+                return chemical != null ? getChemicalName(chemical) : null;
+            };
+        }
+
+        return NONE;
+    }
+
+    @Nullable
+    private static String getChemicalName(Object chemical) throws Throwable {
+        Optional<MethodHandle> getRegistryName = GET_REGISTRY_NAME.get(chemical.getClass());
+        if (getRegistryName.isPresent()) {
+            Object regName = (Object) getRegistryName.get().invokeExact(chemical);
+            return regName != null ? regName.toString() : null;
+        }
+
+        // Mekanism 1.21+ 使用不同的API
+        try {
+            return getRegistryLocation(chemical);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /**
+     * builtInRegistryHolder().key().location()
+     */
+    @Nullable
+    private static String getRegistryLocation(Object entry) throws Throwable {
+        Object holder = invoke(BUILT_IN_REGISTRY_HOLDER, entry);
+        if (holder == null) {
+            return null;
+        }
+        Object resourceKey = invoke(KEY, holder);
+        if (resourceKey == null) {
+            return null;
+        }
+        Object loc = invoke(LOCATION, resourceKey);
+        return loc != null ? loc.toString() : null;
+    }
+
+    /**
+     * 调用接收者类上的无参方法，没有该方法时返回null
+     */
+    @Nullable
+    private static Object invoke(MethodCache cache, Object receiver) throws Throwable {
+        Optional<MethodHandle> handle = cache.get(receiver.getClass());
+        return handle.isPresent() ? (Object) handle.get().invokeExact(receiver) : null;
+    }
+
+    /**
+     * 按类缓存指定名称的公开无参方法，统一转换成(Object)Object的MethodHandle
+     */
+    private static final class MethodCache extends ClassValue<Optional<MethodHandle>> {
+
+        private final String name;
+
+        MethodCache(String name) {
+            this.name = name;
+        }
+
+        @Override
+        protected Optional<MethodHandle> computeValue(Class<?> type) {
+            try {
+                Method method = type.getMethod(name);
+                return Optional.of(MethodHandles.lookup().unreflect(method).asType(GETTER_TYPE));
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                return Optional.empty();
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.gali.jei_enhancements.event;
+
+import com.gali.jei_enhancements.JEIEnhancements;
+import com.gali.jei_enhancements.bookmark.BookmarkManager;
+import net.minecraft.client.Minecraft;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.neoforge.client.event.RegisterClientCommandsEvent;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * 客户端命令
+ * /jei_enhancements export：把书签数据导出为JSON（config/jei_enhancements_bookmarks_export.json）
+ *
+ * 导出文件使用单独的文件名，不会被当作存档（jei_enhancements_bookmarks.json）自动加载
+ */
+public class BookmarkCommandHandler {
+
+    private static final String EXPORT_FILE_NAME = "jei_enhancements_bookmarks_export.json";
+
+    @SubscribeEvent
+    public void onRegisterClientCommands(RegisterClientCommandsEvent event) {
+        event.getDispatcher().register(Commands.literal(JEIEnhancements.MODID)
+                .then(Commands.literal("export")
+                        .executes(context -> exportBookmarks(context.getSource()))));
+    }
+
+    private static int exportBookmarks(CommandSourceStack source) {
+        Path path = Minecraft.getInstance().gameDirectory.toPath().resolve("config").resolve(EXPORT_FILE_NAME);
+        try {
+            BookmarkManager.getInstance().exportJson(path);
+        } catch (IOException e) {
+            JEIEnhancements.LOGGER.error("Failed to export bookmarks to {}", path, e);
+            source.sendFailure(Component.translatable("jei_enhancements.command.export.failed", String.valueOf(e.getMessage())));
+            return 0;
+        }
+
+        source.sendSuccess(() -> Component.translatable("jei_enhancements.command.export.success", "config/" + EXPORT_FILE_NAME), false);
+        return 1;
+    }
+}
@@ -204,7 +204,7 @@ public class BookmarkLayoutClickHandler {
             
             if (item != null) {
                 BookmarkGroup group = manager.getGroup(item.getGroupId());
-                int groupSize = manager.getGroupItems(item.getGroupId()).size();
+                int groupSize = manager.getGroupSize(item.getGroupId());
                 
                 if (group != null && groupSize > 1) {
                     // 切换展开/折叠状态
@@ -1,7 +1,9 @@
 package com.gali.jei_enhancements.event;
 
 import com.gali.jei_enhancements.bookmark.BookmarkItem;
+import com.gali.jei_enhancements.bookmark.BookmarkLayoutManager;
 import com.gali.jei_enhancements.bookmark.BookmarkManager;
+import com.gali.jei_enhancements.bookmark.BookmarkRowScroller;
 import mezz.jei.api.runtime.IJeiRuntime;
 import mezz.jei.api.runtime.IBookmarkOverlay;
 import mezz.jei.gui.bookmarks.IBookmark;
@@ -20,6 +22,7 @@ import java.util.stream.Stream;
 /**
  * 处理书签区域的滚轮事件
  * Ctrl+滚轮调整书签数量
+ * 垂直布局下普通滚轮按行滚动（Shift+滚轮整页翻动）
  */
 public class BookmarkScrollHandler {
 
@@ -32,11 +35,6 @@ public class BookmarkScrollHandler {
 
     @SubscribeEvent(priority = EventPriority.HIGH)
     public void onMouseScrolled(ScreenEvent.MouseScrolled.Pre event) {
-        // 检查是否按住Ctrl键
-        if (!Screen.hasControlDown()) {
-            return;
-        }
-
         if (jeiRuntime == null) {
             return;
         }
@@ -57,6 +55,15 @@ public class BookmarkScrollHandler {
             return;
         }
 
+        // 检查是否按住Ctrl键，没有按住时在垂直布局下按行滚动
+        if (!Screen.hasControlDown()) {
+            if (!Screen.hasShiftDown() && BookmarkLayoutManager.getInstance().isVerticalMode()
+                    && BookmarkRowScroller.getInstance().onScroll(scrollDelta)) {
+                event.setCanceled(true);
+            }
+            return;
+        }
+
         // 获取鼠标下的书签
         Stream<IClickableIngredientInternal<?>> ingredientStream = overlay.getIngredientUnderMouse(mouseX, mouseY);
         Optional<IClickableIngredientInternal<?>> clickedIngredient = ingredientStream.findFirst();
@@ -0,0 +1,60 @@
+package com.gali.jei_enhancements.ingredient;
+
+/**
+ * 材料的种类（物品、流体、化学品等），决定数量的显示方式
+ *
+ * 其他模组可以创建自己的种类，并通过IngredientKindRegistry注册到对应的IIngredientType
+ */
+public final class IngredientKind {
+
+    // 物品：数量右下角显示，每组数量取物品自身的最大堆叠数（这里是默认值）
+    public static final IngredientKind ITEM = new IngredientKind("item", "", 64, false);
+
+    // 流体：数量左下角显示并带单位，每桶1000
+    public static final IngredientKind FLUID = new IngredientKind("fluid", "L", 1000, true);
+
+    // 化学品（Mekanism的气体、浆液、颜料、灌注物等）：与流体相同
+    public static final IngredientKind CHEMICAL = new IngredientKind("chemical", "L", 1000, true);
+
+    // 其他非物品材料：按流体的位置显示，组数按64计算，不带单位
+    public static final IngredientKind OTHER = new IngredientKind("other", "", 64, true);
+
+    private final String name;
+    private final String unitSuffix;
+    private final int stackSize;
+    private final boolean fluidLike;
+
+    /**
+     * @param name 种类名称（用于日志和调试）
+     * @param unitSuffix tooltip中数量的单位后缀，没有时为空字符串
+     * @param stackSize 一组的数量（物品的一组、流体的一桶）
+     * @param fluidLike 书签数量是否按流体的方式显示（左下角，带L后缀）
+     */
+    public IngredientKind(String name, String unitSuffix, int stackSize, boolean fluidLike) {
+        this.name = name;
+        this.unitSuffix = unitSuffix;
+        this.stackSize = stackSize;
+        this.fluidLike = fluidLike;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getUnitSuffix() {
+        return unitSuffix;
+    }
+
+    public int getStackSize() {
+        return stackSize;
+    }
+
+    public boolean isFluidLike() {
+        return fluidLike;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
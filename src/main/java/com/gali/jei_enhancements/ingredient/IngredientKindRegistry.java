@@ -0,0 +1,104 @@
+package com.gali.jei_enhancements.ingredient;
+
+import mezz.jei.api.ingredients.IIngredientType;
+import mezz.jei.api.ingredients.ITypedIngredient;
+import net.minecraft.world.item.ItemStack;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * IIngredientType到IngredientKind的注册表
+ *
+ * 每种IIngredientType只在第一次查询时分类一次，之后渲染和tooltip只做一次Map查找。
+ * 分类顺序：
+ * 1. register()显式注册的种类
+ * 2. registerClassifier()注册的分类器（按注册顺序，返回null表示不认识）
+ * 3. 内置规则：类型UID包含fluid的是流体，包含chemical/gas/slurry/pigment/infuse的是化学品，
+ *    ItemStack是物品，其余为OTHER
+ */
+public class IngredientKindRegistry {
+
+    private static final IngredientKindRegistry INSTANCE = new IngredientKindRegistry();
+
+    /**
+     * 根据材料类型判断种类
+     */
+    @FunctionalInterface
+    public interface Classifier {
+        @Nullable
+        IngredientKind classify(IIngredientType<?> type);
+    }
+
+    // 显式注册的种类
+    private final Map<IIngredientType<?>, IngredientKind> registered = new ConcurrentHashMap<>();
+
+    // 其他模组注册的分类器
+    private final List<Classifier> classifiers = new CopyOnWriteArrayList<>();
+
+    // 分类结果缓存
+    private final Map<IIngredientType<?>, IngredientKind> kinds = new ConcurrentHashMap<>();
+
+    public static IngredientKindRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 为材料类型指定种类，优先于分类器和内置规则
+     */
+    public void register(IIngredientType<?> type, IngredientKind kind) {
+        registered.put(type, kind);
+        kinds.put(type, kind);
+    }
+
+    /**
+     * 注册分类器，之前缓存的分类结果会重新计算
+     */
+    public void registerClassifier(Classifier classifier) {
+        classifiers.add(classifier);
+        kinds.clear();
+    }
+
+    public IngredientKind getKind(IIngredientType<?> type) {
+        IngredientKind kind = kinds.get(type);
+        if (kind == null) {
+            kind = classify(type);
+            kinds.put(type, kind);
+        }
+        return kind;
+    }
+
+    public IngredientKind getKind(ITypedIngredient<?> ingredient) {
+        return getKind(ingredient.getType());
+    }
+
+    private IngredientKind classify(IIngredientType<?> type) {
+        IngredientKind kind = registered.get(type);
+        if (kind != null) {
+            return kind;
+        }
+
+        for (Classifier classifier : classifiers) {
+            kind = classifier.classify(type);
+            if (kind != null) {
+                return kind;
+            }
+        }
+
+        String typeUid = type.getUid();
+        if (typeUid.contains("fluid")) {
+            return IngredientKind.FLUID;
+        }
+        if (typeUid.contains("chemical") || typeUid.contains("gas") || typeUid.contains("slurry")
+                || typeUid.contains("pigment") || typeUid.contains("infuse")) {
+            return IngredientKind.CHEMICAL;
+        }
+        if (ItemStack.class.isAssignableFrom(type.getIngredientClass())) {
+            return IngredientKind.ITEM;
+        }
+        return IngredientKind.OTHER;
+    }
+}
@@ -50,8 +50,8 @@ public class JEIEnhancementsPlugin implements IModPlugin {
 
     @Override
     public void onRuntimeUnavailable() {
-        // 保存书签数据
-        BookmarkManager.getInstance().save();
+        // 保存书签数据，并等待后台写入完成
+        BookmarkManager.getInstance().flush();
         
         jeiRuntime = null;
         ingredientManager = null;
@@ -3,7 +3,11 @@ package com.gali.jei_enhancements.mixin;
 import com.gali.jei_enhancements.JEIEnhancements;
 import com.gali.jei_enhancements.bookmark.BookmarkItem;
 import com.gali.jei_enhancements.bookmark.BookmarkManager;
-import mezz.jei.api.ingredients.ITypedIngredient;
+import com.gali.jei_enhancements.bookmark.BookmarkOrderIndex;
+import com.gali.jei_enhancements.bookmark.BookmarkRowModel;
+import com.gali.jei_enhancements.bookmark.IBookmarkListBatch;
+import com.gali.jei_enhancements.bookmark.IngredientBookmarkCloner;
+import com.gali.jei_enhancements.bookmark.RecipeSegment;
 import mezz.jei.gui.bookmarks.BookmarkList;
 import mezz.jei.gui.bookmarks.IBookmark;
 import mezz.jei.gui.bookmarks.IngredientBookmark;
@@ -18,8 +22,9 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -28,7 +33,7 @@ import java.util.Set;
  * 修改JEI的BookmarkList，允许同一物品多次添加到书签
  */
 @Mixin(value = BookmarkList.class, remap = false)
-public class BookmarkListMixin {
+public class BookmarkListMixin implements IBookmarkListBatch {
     
     @Shadow @Final
     private Set<IBookmark> bookmarksSet;
@@ -39,6 +44,71 @@ public class BookmarkListMixin {
     @Shadow @Final
     private List<SourceListChangedListener> listeners;
     
+    // bookmarksList的按引用索引，删除和移动时不再逐个比较
+    @Unique
+    private final BookmarkOrderIndex jei_enhancements$orderIndex = new BookmarkOrderIndex();
+    
+    // 正在执行add方法（其中的通知不需要重建索引）
+    @Unique
+    private boolean jei_enhancements$adding = false;
+    
+    // 批量修改的嵌套层数
+    @Unique
+    private int jei_enhancements$batchDepth = 0;
+    
+    // 批量修改期间是否修改过列表
+    @Unique
+    private boolean jei_enhancements$batchChanged = false;
+    
+    // 批量修改期间暂时移出的监听器
+    @Unique
+    private final List<SourceListChangedListener> jei_enhancements$suspendedListeners = new ArrayList<>();
+    
+    // setFromConfigFile替换列表之前的书签实例
+    @Unique
+    private final List<IBookmark> jei_enhancements$previousBookmarks = new ArrayList<>();
+    
+    /**
+     * 开始批量修改，暂停监听器通知、书签关联和保存
+     */
+    @Override
+    @Unique
+    public void jei_enhancements$beginBatch() {
+        if (jei_enhancements$batchDepth++ == 0) {
+            jei_enhancements$batchChanged = false;
+            // JEI在每次修改后都会遍历listeners，暂时移走它们，不依赖JEI内部的通知方法名
+            jei_enhancements$suspendedListeners.addAll(listeners);
+            listeners.clear();
+        }
+        BookmarkManager.getInstance().beginBatch();
+    }
+    
+    /**
+     * 提交批量修改：恢复监听器，完成推迟的关联和保存，列表有变化时只通知一次
+     * 关联或保存失败时同样恢复监听器和嵌套深度，异常继续抛给调用方
+     */
+    @Override
+    @Unique
+    public void jei_enhancements$commitBatch() {
+        if (jei_enhancements$batchDepth == 0) {
+            return;
+        }
+        try {
+            BookmarkManager.getInstance().endBatch();
+        } finally {
+            // endBatch()抛出异常时也要恢复监听器，否则书签界面之后不再刷新
+            if (--jei_enhancements$batchDepth == 0) {
+                // 批量期间注册的监听器排在原有监听器之后
+                listeners.addAll(0, jei_enhancements$suspendedListeners);
+                jei_enhancements$suspendedListeners.clear();
+            }
+        }
+        
+        if (jei_enhancements$batchDepth == 0 && jei_enhancements$batchChanged) {
+            jei_enhancements$notifyListeners();
+        }
+    }
+    
     /**
      * 拦截contains方法
      * 当BookmarkManager标记为"允许重复"时，总是返回false，允许添加
@@ -57,11 +127,25 @@ public class BookmarkListMixin {
      */
     @Inject(method = "add", at = @At("HEAD"))
     private void onAdd(IBookmark bookmark, CallbackInfoReturnable<Boolean> cir) {
+        jei_enhancements$batchChanged = true;
+        jei_enhancements$adding = true;
+        BookmarkRowModel.getInstance().onBookmarkListChanged();
         BookmarkManager manager = BookmarkManager.getInstance();
         // 尝试将新添加的JEI书签与已保存的BookmarkItem关联
         manager.tryLinkBookmark(bookmark);
     }
     
+    /**
+     * add方法返回时把新实例记入按引用索引（JEI把书签加到列表开头或末尾），不重建索引
+     */
+    @Inject(method = "add", at = @At("RETURN"))
+    private void onAddReturn(IBookmark bookmark, CallbackInfoReturnable<Boolean> cir) {
+        jei_enhancements$adding = false;
+        if (cir.getReturnValueZ()) {
+            jei_enhancements$orderIndex.onAdded(bookmark, bookmarksList);
+        }
+    }
+    
     /**
      * 拦截moveBookmark方法
      * 完全接管移动逻辑，使用对象引用来正确处理同一物品的多个实例
@@ -69,6 +153,8 @@ public class BookmarkListMixin {
      */
     @Inject(method = "moveBookmark", at = @At("HEAD"), cancellable = true)
     private void onMoveBookmark(IBookmark previousBookmark, IBookmark newBookmark, int offset, CallbackInfo ci) {
+        jei_enhancements$batchChanged = true;
+        BookmarkRowModel.getInstance().onBookmarkListChanged();
         BookmarkManager manager = BookmarkManager.getInstance();
         
         // 查找两个书签对应的BookmarkItem
@@ -122,16 +208,17 @@ public class BookmarkListMixin {
             newIndex %= bookmarksList.size();
             
             // 执行移动（使用对象引用）
-            jei_enhancements$removeByIdentity(newBookmark);
-            bookmarksList.add(newIndex, newBookmark);
+            jei_enhancements$orderIndex.move(newBookmark, newIndex, bookmarksList);
             
             // 通知监听器刷新UI
             jei_enhancements$notifyListeners();
             
             // 取消原始方法
             ci.cancel();
+        } else {
+            // 非管理的书签，让JEI正常处理
+            jei_enhancements$orderIndex.invalidate();
         }
-        // 非管理的书签，让JEI正常处理
     }
     
     /**
@@ -139,35 +226,32 @@ public class BookmarkListMixin {
      */
     @Unique
     private int jei_enhancements$indexOfByIdentity(IBookmark bookmark) {
-        for (int i = 0; i < bookmarksList.size(); i++) {
-            if (bookmarksList.get(i) == bookmark) {
-                return i;
-            }
-        }
-        return -1;
+        return jei_enhancements$orderIndex.indexOf(bookmark, bookmarksList);
     }
     
     /**
-     * 使用对象引用从列表中移除（不从Set中移除）
+     * setFromConfigFile替换列表之前记下当前的书签实例，用于在TAIL中复用
      */
-    @Unique
-    private void jei_enhancements$removeByIdentity(IBookmark bookmark) {
-        Iterator<IBookmark> iterator = bookmarksList.iterator();
-        while (iterator.hasNext()) {
-            if (iterator.next() == bookmark) {
-                iterator.remove();
-                break;
-            }
-        }
+    @Inject(method = "setFromConfigFile", at = @At("HEAD"))
+    private void onSetFromConfigFileHead(List<IBookmark> bookmarks, CallbackInfo ci) {
+        jei_enhancements$previousBookmarks.clear();
+        jei_enhancements$previousBookmarks.addAll(bookmarksList);
     }
     
     /**
      * 拦截setFromConfigFile方法
      * JEI从配置文件加载书签后，需要根据BookmarkManager的数据恢复重复的书签
+     * 
+     * 按BookmarkItem的顺序与已有的书签实例对账：
+     * 书签项原来关联的实例仍然有效（与配置文件中的书签相等）时直接复用，
+     * 否则使用配置文件中的书签，同一物品的其他书签项才复制新实例。
+     * 资源重载等书签没有变化的情况下，实例和映射都保持不变，依赖它们的缓存不会失效。
      */
     @Inject(method = "setFromConfigFile", at = @At("TAIL"))
     private void onSetFromConfigFile(List<IBookmark> bookmarks, CallbackInfo ci) {
-
+        BookmarkRowModel.getInstance().onBookmarkListChanged();
+        jei_enhancements$orderIndex.invalidate();
+        
         BookmarkManager manager = BookmarkManager.getInstance();
         manager.ensureLoaded();
         
@@ -183,36 +267,78 @@ public class BookmarkListMixin {
         
         // 如果没有保存的书签项，不需要处理
         if (allItems.isEmpty()) {
+            jei_enhancements$previousBookmarks.clear();
             return;
         }
         
-        // 清空当前映射，重新建立
-        manager.clearMappings();
-        
-        // 清空JEI的书签列表，重新按顺序添加
-        bookmarksList.clear();
-        bookmarksSet.clear();
+        Set<IBookmark> previous = Collections.newSetFromMap(new IdentityHashMap<>());
+        previous.addAll(jei_enhancements$previousBookmarks);
+        jei_enhancements$previousBookmarks.clear();
+        Set<IBookmark> used = Collections.newSetFromMap(new IdentityHashMap<>());
         
-        // 按BookmarkItem的顺序重新添加书签
-        // 对于重复的物品，需要创建新的书签实例
+        // 按BookmarkItem的顺序确定每一项使用的书签实例
+        List<IBookmark> linked = new ArrayList<>(allItems.size());
+        List<IBookmark> result = new ArrayList<>(allItems.size());
+        int created = 0;
         for (BookmarkItem item : allItems) {
             IBookmark templateBookmark = itemKeyToBookmark.get(item.getItemKey());
-            if (templateBookmark != null) {
-                // 为每个BookmarkItem创建独立的书签实例
-                IBookmark newBookmark = jei_enhancements$cloneBookmark(templateBookmark);
-                if (newBookmark != null) {
-                    // 直接添加到列表（不检查重复）
-                    bookmarksList.add(newBookmark);
-                    bookmarksSet.add(newBookmark);
-                    
-                    // 建立映射
-                    item.setLinkedBookmark(newBookmark);
-                    manager.linkBookmark(newBookmark, item);
-                }
-            } else {
+            if (templateBookmark == null) {
                 JEIEnhancements.LOGGER.warn("Could not find JEI bookmark for item: {}", item.getItemKey());
+                linked.add(null);
+                continue;
             }
+            
+            IBookmark bookmark = item.getLinkedBookmark();
+            if (bookmark == null || !previous.contains(bookmark) || used.contains(bookmark)
+                    || !bookmark.equals(templateBookmark)) {
+                // 原来的实例不能复用：先使用配置文件中的书签，同一物品的其他书签项再复制新实例
+                if (!used.contains(templateBookmark)) {
+                    bookmark = templateBookmark;
+                } else {
+                    bookmark = jei_enhancements$cloneBookmark(templateBookmark);
+                    if (bookmark == null) {
+                        linked.add(null);
+                        continue;
+                    }
+                    created++;
+                }
+            }
+            
+            used.add(bookmark);
+            linked.add(bookmark);
+            result.add(bookmark);
+        }
+        
+        // 只有顺序或实例变化时才替换JEI的列表
+        if (!jei_enhancements$sameByIdentity(bookmarksList, result)) {
+            bookmarksList.clear();
+            bookmarksList.addAll(result);
+        }
+        bookmarksSet.clear();
+        bookmarksSet.addAll(result);
+        
+        // 只更新变化的映射
+        manager.reconcileLinks(allItems, linked);
+        
+        if (created > 0) {
+            JEIEnhancements.LOGGER.debug("Reconciled {} bookmarks, created {} new instances", result.size(), created);
+        }
+    }
+    
+    /**
+     * 两个列表是否按顺序包含相同的实例
+     */
+    @Unique
+    private static boolean jei_enhancements$sameByIdentity(List<IBookmark> a, List<IBookmark> b) {
+        if (a.size() != b.size()) {
+            return false;
         }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
     }
     
     /**
@@ -223,20 +349,7 @@ public class BookmarkListMixin {
     private IBookmark jei_enhancements$cloneBookmark(IBookmark original) {
         try {
             if (original instanceof IngredientBookmark<?> ingredientBookmark) {
-                // 使用反射创建新实例
-                ITypedIngredient<?> ingredient = ingredientBookmark.getIngredient();
-                
-                // 获取uid字段
-                java.lang.reflect.Field uidField = IngredientBookmark.class.getDeclaredField("uid");
-                uidField.setAccessible(true);
-                Object uid = uidField.get(ingredientBookmark);
-                
-                // 使用反射调用构造函数
-                java.lang.reflect.Constructor<?> constructor = IngredientBookmark.class.getDeclaredConstructor(
-                        ITypedIngredient.class, Object.class);
-                constructor.setAccessible(true);
-                
-                return (IBookmark) constructor.newInstance(ingredient, uid);
+                return IngredientBookmarkCloner.clone(ingredientBookmark);
             }
         } catch (Exception e) {
             JEIEnhancements.LOGGER.error("Failed to clone bookmark", e);
@@ -250,6 +363,8 @@ public class BookmarkListMixin {
      */
     @Inject(method = "remove", at = @At("HEAD"), cancellable = true)
     private void onRemove(IBookmark bookmark, CallbackInfoReturnable<Boolean> cir) {
+        jei_enhancements$batchChanged = true;
+        BookmarkRowModel.getInstance().onBookmarkListChanged();
         BookmarkManager manager = BookmarkManager.getInstance();
         
         // 检查这个书签是否在管理器中
@@ -279,6 +394,20 @@ public class BookmarkListMixin {
         } else {
             // 通知manager（以防万一）
             manager.onBookmarkRemoved(bookmark);
+            jei_enhancements$orderIndex.invalidate();
+        }
+    }
+    
+    /**
+     * JEI自己修改列表后也会通知监听器，这里同步增加行模型的修改计数，并让按引用索引重建
+     * add方法中的通知除外：新实例在add返回时由onAddReturn()记入索引
+     * 其他路径已在各自的拦截方法中增加计数，JEI版本中没有这个方法时跳过
+     */
+    @Inject(method = "notifyListenersOfChange", at = @At("HEAD"), require = 0)
+    private void onNotifyListenersOfChange(CallbackInfo ci) {
+        BookmarkRowModel.getInstance().onBookmarkListChanged();
+        if (!jei_enhancements$adding) {
+            jei_enhancements$orderIndex.invalidate();
         }
     }
     
@@ -287,6 +416,7 @@ public class BookmarkListMixin {
      */
     @Unique
     private void jei_enhancements$notifyListeners() {
+        BookmarkRowModel.getInstance().onBookmarkListChanged();
         for (SourceListChangedListener listener : listeners) {
             listener.onSourceListChanged();
         }
@@ -297,29 +427,8 @@ public class BookmarkListMixin {
      */
     @Unique
     private boolean jei_enhancements$removeBookmarkByIdentity(IBookmark bookmark) {
-        // 从bookmarksList中按引用删除（不是equals）
-        boolean removedFromList = false;
-        Iterator<IBookmark> listIterator = bookmarksList.iterator();
-        while (listIterator.hasNext()) {
-            if (listIterator.next() == bookmark) {  // 使用 == 而不是 equals
-                listIterator.remove();
-                removedFromList = true;
-                break;
-            }
-        }
-        
-        // 从bookmarksSet中按引用删除
-        boolean removedFromSet = false;
-        Iterator<IBookmark> setIterator = bookmarksSet.iterator();
-        while (setIterator.hasNext()) {
-            if (setIterator.next() == bookmark) {  // 使用 == 而不是 equals
-                setIterator.remove();
-                removedFromSet = true;
-                break;
-            }
-        }
-        
-        return removedFromList || removedFromSet;
+        // 从bookmarksList中按引用删除（不是equals），没有其他相等的实例时才从bookmarksSet中移除
+        return jei_enhancements$orderIndex.remove(bookmark, bookmarksList, bookmarksSet);
     }
     
     /**
@@ -329,61 +438,32 @@ public class BookmarkListMixin {
     @Unique
     private boolean jei_enhancements$removeRecipe(BookmarkManager manager, BookmarkItem resultItem) {
         int groupId = resultItem.getGroupId();
-        List<BookmarkItem> groupItems = manager.getGroupItems(groupId);
-        boolean anyRemoved = false;
         
-        // 找到这个RESULT在组内的位置
-        int resultIndex = groupItems.indexOf(resultItem);
-        if (resultIndex < 0) {
+        // 找到这个RESULT对应的配方
+        RecipeSegment segment = manager.getRecipeSegment(resultItem);
+        if (segment == null) {
             return false;
         }
         
         // 收集要删除的物品（这个RESULT + 它后面的INGREDIENT）
-        List<BookmarkItem> itemsToRemove = new java.util.ArrayList<>();
+        List<BookmarkItem> itemsToRemove = new ArrayList<>(segment.size());
         itemsToRemove.add(resultItem);
+        itemsToRemove.addAll(segment.getIngredients());
         
-        // 收集紧跟在这个RESULT后面的INGREDIENT
-        for (int i = resultIndex + 1; i < groupItems.size(); i++) {
-            BookmarkItem item = groupItems.get(i);
-            if (item.isOutput()) {
-                // 遇到下一个RESULT，停止
-                break;
-            }
-            if (item.isIngredient()) {
-                itemsToRemove.add(item);
-            }
+        // 从JEI的列表和集合中按引用一次性删除这些书签
+        List<IBookmark> bookmarksToRemove = new ArrayList<>(itemsToRemove.size());
+        for (BookmarkItem item : itemsToRemove) {
+            bookmarksToRemove.add(item.getLinkedBookmark());
         }
+        boolean anyRemoved = jei_enhancements$orderIndex.removeAll(bookmarksToRemove, bookmarksList, bookmarksSet);
         
-        // 从JEI中删除这些书签
-        for (BookmarkItem item : itemsToRemove) {
-            IBookmark linkedBookmark = item.getLinkedBookmark();
-            if (linkedBookmark != null) {
-                // 从JEI的列表和集合中按引用删除
-                Iterator<IBookmark> listIterator = bookmarksList.iterator();
-                while (listIterator.hasNext()) {
-                    if (listIterator.next() == linkedBookmark) {
-                        listIterator.remove();
-                        anyRemoved = true;
-                        break;
-                    }
-                }
-                
-                Iterator<IBookmark> setIterator = bookmarksSet.iterator();
-                while (setIterator.hasNext()) {
-                    if (setIterator.next() == linkedBookmark) {
-                        setIterator.remove();
-                        break;
-                    }
-                }
-            }
-            
-            // 从BookmarkManager中删除
+        // 从BookmarkManager中删除
+        for (IBookmark linkedBookmark : bookmarksToRemove) {
             manager.onBookmarkRemoved(linkedBookmark);
         }
         
         // 检查组是否为空，如果为空则删除组
-        List<BookmarkItem> remainingItems = manager.getGroupItems(groupId);
-        if (remainingItems.isEmpty()) {
+        if (manager.getGroupSize(groupId) == 0) {
             manager.removeGroupOnly(groupId);
         }
         
@@ -399,31 +479,16 @@ public class BookmarkListMixin {
     private boolean jei_enhancements$removeEntireGroup(BookmarkManager manager, int groupId) {
         // 获取该组的所有BookmarkItem
         List<BookmarkItem> groupItems = manager.getGroupItems(groupId);
-        boolean anyRemoved = false;
         
-        // 收集所有需要删除的JEI书签引用
+        // 收集所有需要删除的JEI书签引用，列表只遍历一次
+        List<IBookmark> bookmarksToRemove = new ArrayList<>(groupItems.size());
         for (BookmarkItem groupItem : groupItems) {
             IBookmark linkedBookmark = groupItem.getLinkedBookmark();
             if (linkedBookmark != null) {
-                // 从JEI的列表和集合中按引用删除
-                Iterator<IBookmark> listIterator = bookmarksList.iterator();
-                while (listIterator.hasNext()) {
-                    if (listIterator.next() == linkedBookmark) {
-                        listIterator.remove();
-                        anyRemoved = true;
-                        break;
-                    }
-                }
-                
-                Iterator<IBookmark> setIterator = bookmarksSet.iterator();
-                while (setIterator.hasNext()) {
-                    if (setIterator.next() == linkedBookmark) {
-                        setIterator.remove();
-                        break;
-                    }
-                }
+                bookmarksToRemove.add(linkedBookmark);
             }
         }
+        boolean anyRemoved = jei_enhancements$orderIndex.removeAll(bookmarksToRemove, bookmarksList, bookmarksSet);
         
         // 通知BookmarkManager删除整个组
         manager.removeGroup(groupId);
@@ -2,6 +2,7 @@ package com.gali.jei_enhancements.mixin;
 
 import com.gali.jei_enhancements.bookmark.BookmarkLayoutManager;
 import com.gali.jei_enhancements.bookmark.BookmarkQuantityRenderer;
+import com.gali.jei_enhancements.bookmark.BookmarkSlotTable;
 import com.gali.jei_enhancements.bookmark.GroupingDragHandler;
 import mezz.jei.gui.bookmarks.BookmarkList;
 import mezz.jei.gui.overlay.IngredientGrid;
@@ -35,15 +36,20 @@ public abstract class BookmarkOverlayMixin {
     @Inject(method = "drawScreen", at = @At("TAIL"))
     private void onDrawScreenTail(Minecraft minecraft, GuiGraphics guiGraphics, int mouseX, int mouseY, float partialTicks, CallbackInfo ci) {
         if (isListDisplayed()) {
+            List<IngredientListSlot> slots = jei_enhancements$getSlots();
+            
             // 更新网格信息
-            jei_enhancements$updateGridInfo();
+            jei_enhancements$updateGridInfo(slots);
+            
+            // 布局或书签映射变化时重新解析槽位，之后的渲染共用解析结果
+            BookmarkSlotTable table = BookmarkSlotTable.getInstance();
+            table.update(slots);
             
             // 渲染组面板（[符号和拖动效果）
-            List<IngredientListSlot> slots = jei_enhancements$getSlots();
             GroupingDragHandler.getInstance().render(guiGraphics, mouseX, mouseY, slots);
             
             // 渲染自定义数量
-            BookmarkQuantityRenderer.renderQuantities(guiGraphics, contents, bookmarkList);
+            BookmarkQuantityRenderer.renderQuantities(guiGraphics, table);
         }
     }
     
@@ -51,12 +57,11 @@ public abstract class BookmarkOverlayMixin {
      * 更新GroupingDragHandler的网格信息
      */
     @Unique
-    private void jei_enhancements$updateGridInfo() {
+    private void jei_enhancements$updateGridInfo(List<IngredientListSlot> slots) {
         if (!BookmarkLayoutManager.getInstance().isVerticalMode()) {
             return;
         }
         
-        List<IngredientListSlot> slots = jei_enhancements$getSlots();
         if (slots.isEmpty()) {
             return;
         }
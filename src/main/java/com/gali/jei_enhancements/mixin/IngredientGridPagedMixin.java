@@ -10,8 +10,6 @@ import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
-import java.util.List;
-
 /**
  * Mixin到IngredientGridWithNavigation的内部类IngredientGridPaged
  * 修改分页计算逻辑
@@ -36,8 +34,7 @@ public abstract class IngredientGridPagedMixin implements IPaged {
         
         // 检查是否是垂直模式的书签列表
         if (outer instanceof IVerticalPagingAccessor accessor) {
-            List<int[]> groupRanges = accessor.jei_enhancements$getGroupRanges();
-            if (groupRanges != null && !groupRanges.isEmpty()) {
+            if (accessor.jei_enhancements$getGroupCount() > 0) {
                 int pageCount = accessor.jei_enhancements$getPageCount();
                 if (pageCount > 0) {
                     cir.setReturnValue(pageCount);
@@ -61,8 +58,7 @@ public abstract class IngredientGridPagedMixin implements IPaged {
         }
         
         if (outer instanceof IVerticalPagingAccessor accessor) {
-            List<int[]> groupRanges = accessor.jei_enhancements$getGroupRanges();
-            if (groupRanges != null && !groupRanges.isEmpty()) {
+            if (accessor.jei_enhancements$getGroupCount() > 0) {
                 cir.setReturnValue(accessor.jei_enhancements$getPageNumber());
             }
         }
@@ -83,8 +79,7 @@ public abstract class IngredientGridPagedMixin implements IPaged {
         }
         
         if (outer instanceof IVerticalPagingAccessor accessor) {
-            List<int[]> groupRanges = accessor.jei_enhancements$getGroupRanges();
-            if (groupRanges != null && !groupRanges.isEmpty()) {
+            if (accessor.jei_enhancements$getGroupCount() > 0) {
                 boolean result = accessor.jei_enhancements$nextPage();
                 // 触发布局更新
                 try {
@@ -114,8 +109,7 @@ public abstract class IngredientGridPagedMixin implements IPaged {
         }
         
         if (outer instanceof IVerticalPagingAccessor accessor) {
-            List<int[]> groupRanges = accessor.jei_enhancements$getGroupRanges();
-            if (groupRanges != null && !groupRanges.isEmpty()) {
+            if (accessor.jei_enhancements$getGroupCount() > 0) {
                 boolean result = accessor.jei_enhancements$previousPage();
                 // 触发布局更新
                 try {
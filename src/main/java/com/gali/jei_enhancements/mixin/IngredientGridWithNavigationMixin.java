@@ -1,11 +1,10 @@
 package com.gali.jei_enhancements.mixin;
 
-import com.gali.jei_enhancements.bookmark.BookmarkItem;
 import com.gali.jei_enhancements.bookmark.BookmarkLayoutManager;
-import com.gali.jei_enhancements.bookmark.BookmarkManager;
+import com.gali.jei_enhancements.bookmark.BookmarkRowModel;
+import com.gali.jei_enhancements.bookmark.BookmarkRowScroller;
 import com.gali.jei_enhancements.bookmark.IVerticalPagingAccessor;
 import mezz.jei.gui.PageNavigation;
-import mezz.jei.gui.bookmarks.IBookmark;
 import mezz.jei.gui.overlay.IIngredientGridSource;
 import mezz.jei.gui.overlay.IngredientGrid;
 import mezz.jei.gui.overlay.IngredientGridWithNavigation;
@@ -21,7 +20,6 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
 
 /**
  * 修改IngredientGridWithNavigation的分页逻辑
@@ -42,18 +40,21 @@ public abstract class IngredientGridWithNavigationMixin implements IVerticalPagi
     @Shadow @Final
     private PageNavigation navigation;
 
-    // 缓存的组信息
-    @Unique
-    private List<int[]> jei_enhancements$groupRanges = null;
-    
+    @Shadow
+    protected abstract void updateLayout(boolean resetToFirstPage);
+
+    // 当前是否按BookmarkRowModel的行分页
     @Unique
-    private int jei_enhancements$lastElementCount = -1;
+    private boolean jei_enhancements$rowPaging = false;
     
     @Unique
     private int jei_enhancements$currentGroupIndex = 0;
     
     @Unique
     private int jei_enhancements$rowsPerPage = 1;
+    
+    @Unique
+    private int jei_enhancements$columns = 1;
 
     /**
      * 拦截updateLayout方法，在垂直布局模式下修正firstItemIndex和分页
@@ -61,44 +62,45 @@ public abstract class IngredientGridWithNavigationMixin implements IVerticalPagi
     @Inject(method = "updateLayout", at = @At("HEAD"))
     private void onUpdateLayoutHead(boolean resetToFirstPage, CallbackInfo ci) {
         if (!BookmarkLayoutManager.getInstance().isVerticalMode()) {
-            jei_enhancements$groupRanges = null;
+            jei_enhancements$rowPaging = false;
             return;
         }
 
         List<IElement<?>> ingredientList = ingredientSource.getElements();
         if (ingredientList.isEmpty()) {
-            jei_enhancements$groupRanges = null;
+            jei_enhancements$rowPaging = false;
             return;
         }
 
         // 检查是否是书签列表
-        if (!jei_enhancements$isManagedBookmarkList(ingredientList)) {
-            jei_enhancements$groupRanges = null;
+        if (!BookmarkRowModel.isBookmarkList(ingredientList)) {
+            jei_enhancements$rowPaging = false;
             return;
         }
 
-        // 计算每页行数
-        jei_enhancements$rowsPerPage = jei_enhancements$calculateRowsPerPage();
-
-        // 重新计算组范围（如果元素数量变化了）
-        if (jei_enhancements$groupRanges == null || jei_enhancements$lastElementCount != ingredientList.size()) {
-            jei_enhancements$groupRanges = jei_enhancements$calculateGroupRanges(ingredientList);
-            jei_enhancements$lastElementCount = ingredientList.size();
+        // 行模型只在元素或书签数据变化时重建
+        BookmarkRowModel rowModel = BookmarkRowModel.getInstance().update(ingredientList);
+        if (rowModel.getRowCount() == 0) {
+            jei_enhancements$rowPaging = false;
+            return;
         }
+
+        // 计算每页行数和列数
+        jei_enhancements$updateGridSize();
+
+        jei_enhancements$rowPaging = true;
+        BookmarkRowScroller.getInstance().setPagingGrid(this);
         
         if (resetToFirstPage) {
             jei_enhancements$currentGroupIndex = 0;
             firstItemIndex = 0;
         } else {
             // 根据firstItemIndex计算当前组索引
-            jei_enhancements$currentGroupIndex = jei_enhancements$findGroupIndexForElementIndex(firstItemIndex);
+            jei_enhancements$currentGroupIndex = rowModel.findRow(firstItemIndex);
         }
 
         // 确保firstItemIndex对应当前组的开始位置
-        if (jei_enhancements$groupRanges != null && !jei_enhancements$groupRanges.isEmpty() 
-                && jei_enhancements$currentGroupIndex < jei_enhancements$groupRanges.size()) {
-            firstItemIndex = jei_enhancements$groupRanges.get(jei_enhancements$currentGroupIndex)[0];
-        }
+        firstItemIndex = rowModel.getRowStart(jei_enhancements$currentGroupIndex);
     }
     
     /**
@@ -110,7 +112,7 @@ public abstract class IngredientGridWithNavigationMixin implements IVerticalPagi
             return;
         }
         
-        if (jei_enhancements$groupRanges == null || jei_enhancements$groupRanges.isEmpty()) {
+        if (!jei_enhancements$rowPaging) {
             return;
         }
         
@@ -119,123 +121,41 @@ public abstract class IngredientGridWithNavigationMixin implements IVerticalPagi
     }
     
     /**
-     * 计算每页可显示的行数
+     * 计算每页可显示的行数和每行的列数
      */
     @Unique
-    private int jei_enhancements$calculateRowsPerPage() {
+    private void jei_enhancements$updateGridSize() {
         List<IngredientListSlot> slots = new ArrayList<>();
         ingredientGrid.getSlots().forEach(slots::add);
         
+        jei_enhancements$rowsPerPage = 1;
+        jei_enhancements$columns = 1;
         if (slots.isEmpty()) {
-            return 1;
+            return;
         }
         
+        int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
         int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+        int slotWidth = slots.get(0).getArea().getWidth();
         int slotHeight = slots.get(0).getArea().getHeight();
         
         for (IngredientListSlot slot : slots) {
             if (!slot.isBlocked()) {
+                int x = slot.getArea().getX();
                 int y = slot.getArea().getY();
+                minX = Math.min(minX, x);
+                maxX = Math.max(maxX, x);
                 minY = Math.min(minY, y);
                 maxY = Math.max(maxY, y);
             }
         }
         
         if (minY == Integer.MAX_VALUE) {
-            return 1;
-        }
-        
-        return (maxY - minY) / slotHeight + 1;
-    }
-    
-    /**
-     * 根据元素索引找到对应的组索引
-     */
-    @Unique
-    private int jei_enhancements$findGroupIndexForElementIndex(int elementIndex) {
-        if (jei_enhancements$groupRanges == null || jei_enhancements$groupRanges.isEmpty()) {
-            return 0;
-        }
-        
-        for (int i = 0; i < jei_enhancements$groupRanges.size(); i++) {
-            int[] range = jei_enhancements$groupRanges.get(i);
-            if (elementIndex >= range[0] && elementIndex <= range[1]) {
-                return i;
-            }
-            if (elementIndex < range[0]) {
-                return Math.max(0, i - 1);
-            }
-        }
-        
-        return jei_enhancements$groupRanges.size() - 1;
-    }
-
-    /**
-     * 计算所有组的范围 [startIndex, endIndex]
-     */
-    @Unique
-    private List<int[]> jei_enhancements$calculateGroupRanges(List<IElement<?>> ingredientList) {
-        List<int[]> ranges = new ArrayList<>();
-        BookmarkManager manager = BookmarkManager.getInstance();
-        
-        int groupStart = 0;
-        boolean foundFirstGroup = false;
-        
-        for (int i = 0; i < ingredientList.size(); i++) {
-            IElement<?> element = ingredientList.get(i);
-            Optional<IBookmark> bookmarkOpt = element.getBookmark();
-            
-            if (bookmarkOpt.isPresent()) {
-                BookmarkItem item = manager.findBookmarkItem(bookmarkOpt.get());
-                if (item != null) {
-                    // 如果是RESULT或ITEM类型，这是一个新组的开始
-                    if (item.isOutput() || item.getType() == BookmarkItem.BookmarkItemType.ITEM) {
-                        if (foundFirstGroup && i > groupStart) {
-                            // 保存前一个组的范围
-                            ranges.add(new int[]{groupStart, i - 1});
-                        }
-                        groupStart = i;
-                        foundFirstGroup = true;
-                    }
-                }
-            }
-        }
-        
-        // 添加最后一个组
-        if (foundFirstGroup && groupStart < ingredientList.size()) {
-            ranges.add(new int[]{groupStart, ingredientList.size() - 1});
-        } else if (!foundFirstGroup && !ingredientList.isEmpty()) {
-            // 没有找到任何组头，把所有元素作为一个组
-            ranges.add(new int[]{0, ingredientList.size() - 1});
-        }
-        
-        return ranges;
-    }
-
-    /**
-     * 检查是否是受管理的书签列表
-     */
-    @Unique
-    private boolean jei_enhancements$isManagedBookmarkList(List<IElement<?>> ingredientList) {
-        BookmarkManager manager = BookmarkManager.getInstance();
-        
-        int checkedCount = 0;
-        int managedCount = 0;
-        
-        for (int i = 0; i < ingredientList.size() && checkedCount < 5; i++) {
-            IElement<?> element = ingredientList.get(i);
-            Optional<IBookmark> bookmarkOpt = element.getBookmark();
-            
-            if (bookmarkOpt.isPresent()) {
-                checkedCount++;
-                BookmarkItem item = manager.findBookmarkItem(bookmarkOpt.get());
-                if (item != null) {
-                    managedCount++;
-                }
-            }
+            return;
         }
         
-        return checkedCount > 0 && managedCount > 0;
+        jei_enhancements$rowsPerPage = (maxY - minY) / slotHeight + 1;
+        jei_enhancements$columns = (maxX - minX) / slotWidth + 1;
     }
     
     /**
@@ -244,10 +164,10 @@ public abstract class IngredientGridWithNavigationMixin implements IVerticalPagi
     @Override
     @Unique
     public int jei_enhancements$getPageCount() {
-        if (jei_enhancements$groupRanges == null || jei_enhancements$groupRanges.isEmpty()) {
+        int groupCount = jei_enhancements$getGroupCount();
+        if (groupCount == 0) {
             return 1;
         }
-        int groupCount = jei_enhancements$groupRanges.size();
         return Math.max(1, (int) Math.ceil((double) groupCount / jei_enhancements$rowsPerPage));
     }
     
@@ -269,17 +189,18 @@ public abstract class IngredientGridWithNavigationMixin implements IVerticalPagi
     @Override
     @Unique
     public boolean jei_enhancements$nextPage() {
-        if (jei_enhancements$groupRanges == null || jei_enhancements$groupRanges.isEmpty()) {
+        int groupCount = jei_enhancements$getGroupCount();
+        if (groupCount == 0) {
             return false;
         }
         
         int nextGroupIndex = jei_enhancements$currentGroupIndex + jei_enhancements$rowsPerPage;
-        if (nextGroupIndex >= jei_enhancements$groupRanges.size()) {
+        if (nextGroupIndex >= groupCount) {
             nextGroupIndex = 0; // 循环到第一页
         }
         
         jei_enhancements$currentGroupIndex = nextGroupIndex;
-        firstItemIndex = jei_enhancements$groupRanges.get(nextGroupIndex)[0];
+        firstItemIndex = BookmarkRowModel.getInstance().getRowStart(nextGroupIndex);
         return true;
     }
     
@@ -289,30 +210,57 @@ public abstract class IngredientGridWithNavigationMixin implements IVerticalPagi
     @Override
     @Unique
     public boolean jei_enhancements$previousPage() {
-        if (jei_enhancements$groupRanges == null || jei_enhancements$groupRanges.isEmpty()) {
+        int groupCount = jei_enhancements$getGroupCount();
+        if (groupCount == 0) {
             return false;
         }
         
         int prevGroupIndex = jei_enhancements$currentGroupIndex - jei_enhancements$rowsPerPage;
         if (prevGroupIndex < 0) {
             // 循环到最后一页
-            int totalGroups = jei_enhancements$groupRanges.size();
-            int lastPageStartGroup = ((totalGroups - 1) / jei_enhancements$rowsPerPage) * jei_enhancements$rowsPerPage;
+            int lastPageStartGroup = ((groupCount - 1) / jei_enhancements$rowsPerPage) * jei_enhancements$rowsPerPage;
             prevGroupIndex = lastPageStartGroup;
         }
         
         jei_enhancements$currentGroupIndex = prevGroupIndex;
-        firstItemIndex = jei_enhancements$groupRanges.get(prevGroupIndex)[0];
+        firstItemIndex = BookmarkRowModel.getInstance().getRowStart(prevGroupIndex);
+        return true;
+    }
+    
+    /**
+     * 垂直模式下按行滚动，不循环，停在最后一屏刚好填满的位置
+     * @param rows 滚动的行数，正数向下
+     */
+    @Override
+    @Unique
+    public boolean jei_enhancements$scrollRows(int rows) {
+        int groupCount = jei_enhancements$getGroupCount();
+        if (groupCount == 0) {
+            return false;
+        }
+        
+        BookmarkRowModel rowModel = BookmarkRowModel.getInstance();
+        int lastStartRow = rowModel.getLastStartRow(jei_enhancements$rowsPerPage, jei_enhancements$columns);
+        int groupIndex = Math.max(0, Math.min(lastStartRow, jei_enhancements$currentGroupIndex + rows));
+        if (groupIndex == jei_enhancements$currentGroupIndex) {
+            return false;
+        }
+        
+        jei_enhancements$currentGroupIndex = groupIndex;
+        firstItemIndex = rowModel.getRowStart(groupIndex);
+        
+        // 刷新布局，只重新摆放屏幕内的行
+        updateLayout(false);
         return true;
     }
     
     /**
-     * 获取组范围列表
+     * 获取分页的行数（不是书签列表时为0）
      */
     @Override
     @Unique
-    public List<int[]> jei_enhancements$getGroupRanges() {
-        return jei_enhancements$groupRanges;
+    public int jei_enhancements$getGroupCount() {
+        return jei_enhancements$rowPaging ? BookmarkRowModel.getInstance().getRowCount() : 0;
     }
     
     /**
@@ -1,15 +1,11 @@
 package com.gali.jei_enhancements.mixin;
 
-import com.gali.jei_enhancements.JEIEnhancements;
-import com.gali.jei_enhancements.bookmark.BookmarkGroup;
-import com.gali.jei_enhancements.bookmark.BookmarkItem;
 import com.gali.jei_enhancements.bookmark.BookmarkLayoutManager;
-import com.gali.jei_enhancements.bookmark.BookmarkManager;
+import com.gali.jei_enhancements.bookmark.BookmarkRowModel;
 import mezz.jei.api.gui.drawable.IDrawable;
 import mezz.jei.api.ingredients.IIngredientType;
 import mezz.jei.api.ingredients.rendering.BatchRenderElement;
 import mezz.jei.core.collect.ListMultiMap;
-import mezz.jei.gui.bookmarks.IBookmark;
 import mezz.jei.gui.overlay.IngredientListRenderer;
 import mezz.jei.gui.overlay.IngredientListSlot;
 import mezz.jei.gui.overlay.elements.IElement;
@@ -21,10 +17,7 @@ import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Optional;
-import java.util.Set;
 
 /**
  * 修改IngredientListRenderer的set方法
@@ -54,7 +47,7 @@ public abstract class IngredientListRendererMixin {
             return;
         }
 
-        if (!isManagedBookmarkList(ingredientList, startIndex)) {
+        if (!BookmarkRowModel.isBookmarkList(ingredientList)) {
             return;
         }
 
@@ -99,44 +92,21 @@ public abstract class IngredientListRendererMixin {
             }
         }
 
-        // 先对所有元素进行分组（从索引0开始，获取完整的分组信息）
-        List<List<IElement<?>>> allGroupedElements = groupElements(ingredientList, 0);
-        
-        if (allGroupedElements.isEmpty()) {
+        // 行由BookmarkRowModel统一划分，这里只负责摆放
+        BookmarkRowModel rowModel = BookmarkRowModel.getInstance().update(ingredientList);
+        if (rowModel.getRowCount() == 0) {
             ci.cancel();
             return;
         }
         
-        // 计算startIndex对应的组索引
-        // 在垂直模式下，startIndex应该对应某个组的第一个元素
-        int startGroupIndex = 0;
-        int cumulativeElementCount = 0;
-        
-        for (int i = 0; i < allGroupedElements.size(); i++) {
-            List<IElement<?>> group = allGroupedElements.get(i);
-            int nextCumulativeCount = cumulativeElementCount + group.size();
-            
-            // 如果startIndex落在这个组的范围内，从这个组开始
-            if (startIndex < nextCumulativeCount) {
-                startGroupIndex = i;
-                break;
-            }
-            
-            cumulativeElementCount = nextCumulativeCount;
-            
-            // 如果已经遍历完所有组，从最后一个组开始
-            if (i == allGroupedElements.size() - 1) {
-                startGroupIndex = i;
-            }
-        }
+        // startIndex对应包含它的行（分页时firstItemIndex总是指向某一行的行首）
+        int startGroupIndex = rowModel.findRow(startIndex);
         
         // 从startGroupIndex开始显示组
         int currentRow = 0;
         int currentCol = 0;
         
-        for (int groupIdx = startGroupIndex; groupIdx < allGroupedElements.size(); groupIdx++) {
-            List<IElement<?>> group = allGroupedElements.get(groupIdx);
-            
+        for (int groupIdx = startGroupIndex; groupIdx < rowModel.getRowCount(); groupIdx++) {
             if (currentRow >= rows) {
                 break;
             }
@@ -152,10 +122,9 @@ public abstract class IngredientListRendererMixin {
             
             boolean groupHasVisibleElements = false;
             
-            for (IElement<?> element : group) {
-                if (!element.isVisible()) {
-                    continue;
-                }
+            int rowSize = rowModel.getRowSize(groupIdx);
+            for (int k = 0; k < rowSize; k++) {
+                IElement<?> element = rowModel.getRowElement(groupIdx, k);
                 
                 // 如果当前行放不下，换到下一行
                 if (currentCol >= columns) {
@@ -185,143 +154,4 @@ public abstract class IngredientListRendererMixin {
 
         ci.cancel();
     }
-    
-    /**
-     * 按组分组元素
-     * 每个RESULT类型的项都开始新的一行（即使它们有相同的groupId）
-     */
-    private List<List<IElement<?>>> groupElements(List<IElement<?>> ingredientList, int startIndex) {
-        List<List<IElement<?>>> result = new ArrayList<>();
-        BookmarkManager manager = BookmarkManager.getInstance();
-        
-        // 用于跟踪已处理的元素索引
-        Set<Integer> processedIndices = new HashSet<>();
-        
-        for (int i = startIndex; i < ingredientList.size(); i++) {
-            if (processedIndices.contains(i)) {
-                continue;
-            }
-            
-            IElement<?> element = ingredientList.get(i);
-            if (!element.isVisible()) {
-                processedIndices.add(i);
-                continue;
-            }
-            
-            Optional<IBookmark> bookmarkOpt = element.getBookmark();
-            if (bookmarkOpt.isEmpty()) {
-                // 没有书签信息，作为单独元素
-                List<IElement<?>> singleGroup = new ArrayList<>();
-                singleGroup.add(element);
-                result.add(singleGroup);
-                processedIndices.add(i);
-                continue;
-            }
-            
-            BookmarkItem item = manager.findBookmarkItem(bookmarkOpt.get());
-            
-            if (item == null) {
-                // 没有在BookmarkManager中找到，作为单独元素
-                List<IElement<?>> singleGroup = new ArrayList<>();
-                singleGroup.add(element);
-                result.add(singleGroup);
-                processedIndices.add(i);
-                continue;
-            }
-            
-            int groupId = item.getGroupId();
-            BookmarkGroup group = manager.getGroup(groupId);
-            List<IElement<?>> groupElements = new ArrayList<>();
-            
-            // NEI风格：每个RESULT类型的项都开始新的一行
-            // 只收集从当前RESULT到下一个RESULT之间的元素
-            if (item.isOutput() || item.getType() == BookmarkItem.BookmarkItemType.ITEM) {
-                // 这是一个组头或普通物品，开始新的一行
-                groupElements.add(element);
-                processedIndices.add(i);
-                
-                if (group != null && !group.isExpanded()) {
-                    // 折叠状态：只显示这个组头
-                    // 不收集后续的INGREDIENT
-                } else {
-                    // 展开状态：收集紧随其后的INGREDIENT元素（同一个groupId，直到遇到下一个RESULT）
-                    for (int j = i + 1; j < ingredientList.size(); j++) {
-                        if (processedIndices.contains(j)) {
-                            continue;
-                        }
-                        
-                        IElement<?> nextElement = ingredientList.get(j);
-                        if (!nextElement.isVisible()) {
-                            continue;
-                        }
-                        
-                        Optional<IBookmark> nextBookmarkOpt = nextElement.getBookmark();
-                        if (nextBookmarkOpt.isEmpty()) {
-                            break; // 遇到非书签元素，停止
-                        }
-                        
-                        BookmarkItem nextItem = manager.findBookmarkItem(nextBookmarkOpt.get());
-                        if (nextItem == null) {
-                            break;
-                        }
-                        
-                        // 如果遇到另一个RESULT或ITEM，停止（它会开始新的一行）
-                        if (nextItem.isOutput() || nextItem.getType() == BookmarkItem.BookmarkItemType.ITEM) {
-                            break;
-                        }
-                        
-                        // 只收集同一个groupId的INGREDIENT
-                        if (nextItem.getGroupId() == groupId && nextItem.isIngredient()) {
-                            groupElements.add(nextElement);
-                            processedIndices.add(j);
-                        }
-                    }
-                }
-            } else {
-                // 这是一个INGREDIENT，但前面没有对应的RESULT
-                // 作为单独元素处理
-                groupElements.add(element);
-                processedIndices.add(i);
-            }
-            
-            if (!groupElements.isEmpty()) {
-                result.add(groupElements);
-            }
-        }
-        
-        return result;
-    }
-
-    /**
-     * 检查元素是否在BookmarkManager中有记录
-     */
-    private boolean isManagedBookmarkList(List<IElement<?>> ingredientList, int startIndex) {
-        BookmarkManager manager = BookmarkManager.getInstance();
-        
-        // 检查前几个有书签信息的元素是否在BookmarkManager中
-        int checkedCount = 0;
-        int managedCount = 0;
-        
-        for (int i = startIndex; i < ingredientList.size() && checkedCount < 5; i++) {
-            IElement<?> element = ingredientList.get(i);
-            Optional<IBookmark> bookmarkOpt = element.getBookmark();
-            
-            if (bookmarkOpt.isPresent()) {
-                checkedCount++;
-                // 检查这个书签是否在BookmarkManager中
-                BookmarkItem item = manager.findBookmarkItem(bookmarkOpt.get());
-                if (item != null) {
-                    managedCount++;
-                }
-            }
-        }
-        
-        // 如果没有找到任何书签元素，不是书签列表
-        if (checkedCount == 0) {
-            return false;
-        }
-        
-
-        return managedCount > 0;
-    }
 }
@@ -2,6 +2,7 @@ package com.gali.jei_enhancements.recipe;
 
 import com.gali.jei_enhancements.bookmark.BookmarkItem;
 import com.gali.jei_enhancements.bookmark.BookmarkManager;
+import com.gali.jei_enhancements.bookmark.IBookmarkListBatch;
 import mezz.jei.api.gui.IRecipeLayoutDrawable;
 import mezz.jei.api.gui.ingredient.IRecipeSlotView;
 import mezz.jei.api.gui.ingredient.IRecipeSlotsView;
@@ -120,6 +121,10 @@ public class RecipeBookmarkHelper {
         manager.setAllowDuplicates(true);
         manager.setCurrentAddingGroupId(groupId);
         
+        // 整个配方作为一次批量修改：只通知监听器（重新布局）一次，只保存一次
+        IBookmarkListBatch batch = (IBookmarkListBatch) (Object) bookmarkList;
+        batch.jei_enhancements$beginBatch();
+        
         try {
             boolean added = false;
             
@@ -140,13 +145,12 @@ public class RecipeBookmarkHelper {
             
             // 不添加副产物（outputs中索引>0的项）
             
-            if (added) {
-                manager.save();
-            }
-            
             return added;
             
         } finally {
+            // 提交批量修改（推迟的保存在这里执行）
+            batch.jei_enhancements$commitBatch();
+            
             // 关闭允许重复模式
             manager.setAllowDuplicates(false);
             manager.setCurrentAddingGroupId(BookmarkManager.DEFAULT_GROUP_ID);
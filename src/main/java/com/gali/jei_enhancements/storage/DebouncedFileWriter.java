@@ -0,0 +1,187 @@
+package com.gali.jei_enhancements.storage;
+
+import com.gali.jei_enhancements.JEIEnhancements;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 后台写文件（write-behind）
+ *
+ * - submit()只记录要写的内容，由单个后台线程在防抖窗口结束后写入
+ * - 窗口内的多次提交合并为一次写入，只写最后一次提交的内容
+ * - schedule()同样在防抖窗口结束后执行任务，窗口内的多次调用只执行一次（用于合并追加日志）
+ * - 先写临时文件并同步到磁盘，再原子替换目标文件，写到一半崩溃或断电都不会损坏旧文件
+ * - execute()在同一个后台线程上执行其他IO任务，与之前提交的内容按顺序落盘
+ * - flush()立即写入尚未写出的内容并等待完成（用于退出时）
+ *
+ * 提交的内容必须是不可变的快照，后台线程不会访问调用方的其他状态
+ */
+public class DebouncedFileWriter {
+
+    /**
+     * 要写入的内容
+     */
+    @FunctionalInterface
+    public interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * 在后台线程上执行的IO任务
+     */
+    @FunctionalInterface
+    public interface Task {
+        void run() throws IOException;
+    }
+
+    // 防抖窗口（毫秒），可以通过 -Djei_enhancements.saveDebounceMs=... 修改
+    public static final long DEBOUNCE_MILLIS = Long.getLong("jei_enhancements.saveDebounceMs", 500L);
+
+    // 退出时等待写入完成的最长时间
+    private static final long FLUSH_TIMEOUT_SECONDS = 10;
+
+    private final Path target;
+    private final ScheduledExecutorService executor;
+
+    // 以下字段由this保护
+    private Content pending;
+    private Task pendingTask;
+    private ScheduledFuture<?> scheduled;
+
+    public DebouncedFileWriter(Path target, String threadName) {
+        this.target = target;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public Path getTarget() {
+        return target;
+    }
+
+    /**
+     * 提交要写入的内容，替换窗口内尚未写出的内容
+     */
+    public synchronized void submit(Content content) {
+        pending = content;
+        if (scheduled == null) {
+            scheduled = executor.schedule(this::writePending, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 在防抖窗口结束后在后台线程上执行任务，替换窗口内尚未执行的任务
+     */
+    public synchronized void schedule(Task task) {
+        pendingTask = task;
+        if (scheduled == null) {
+            scheduled = executor.schedule(this::writePending, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 在后台线程上执行IO任务
+     * 执行前先写出之前提交的内容并执行之前安排的任务，所以任务总是在它们之后执行
+     */
+    public void execute(Task task) {
+        executor.execute(() -> {
+            writePending();
+            try {
+                task.run();
+            } catch (Exception e) {
+                JEIEnhancements.LOGGER.error("Background write task for {} failed", target, e);
+            }
+        });
+    }
+
+    /**
+     * 立即写入尚未写出的内容，并等待后台线程完成
+     */
+    public void flush() {
+        synchronized (this) {
+            if (scheduled != null) {
+                scheduled.cancel(false);
+                scheduled = null;
+            }
+        }
+
+        try {
+            // 在后台线程上执行，保证与正在进行的写入按顺序完成
+            executor.submit(this::writePending).get(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            JEIEnhancements.LOGGER.error("Failed to flush {}", target, e);
+        }
+    }
+
+    private void writePending() {
+        Content content;
+        Task task;
+        synchronized (this) {
+            content = pending;
+            task = pendingTask;
+            pending = null;
+            pendingTask = null;
+            scheduled = null;
+        }
+
+        if (content != null) {
+            try {
+                writeAtomically(target, content);
+            } catch (Exception e) {
+                JEIEnhancements.LOGGER.error("Failed to write {}", target, e);
+            }
+        }
+        if (task != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                JEIEnhancements.LOGGER.error("Background write task for {} failed", target, e);
+            }
+        }
+    }
+
+    /**
+     * 写入临时文件并同步到磁盘后原子替换目标文件
+     */
+    public static void writeAtomically(Path target, Content content) throws IOException {
+        Path parent = target.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+            content.writeTo(out);
+            out.flush();
+
+            // 替换前先把内容同步到磁盘，否则断电后可能留下已改名但内容不完整的文件
+            channel.force(true);
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
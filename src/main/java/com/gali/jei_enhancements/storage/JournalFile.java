@@ -0,0 +1,193 @@
+package com.gali.jei_enhancements.storage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 只追加的日志文件（每行一条记录）
+ *
+ * 第一行是代数（generation），与对应快照中的代数相同时日志才有效。
+ * 压缩时先写出新一代的快照，再用reset()清空日志并写入新的代数，
+ * 两步之间崩溃只会留下与快照代数不一致的旧日志，读取时会被忽略。
+ *
+ * 要追加的记录先用enqueue()按代数排队，由写线程在writeQueued()中写出：
+ * - 代数与日志文件相同的记录追加到文件
+ * - 代数更旧的记录已经包含在更新的快照里，直接丢弃
+ * - 代数更新的记录（或日志代数未知时）等待对应的快照写出（reset()）之后再写，快照写入失败时它们不会混进旧日志
+ *
+ * enqueue()可以在任意线程调用，其他写入方法不是线程安全的，
+ * 应当只在同一个写线程上调用（见DebouncedFileWriter.execute）
+ */
+public class JournalFile {
+
+    private static final String HEADER_PREFIX = "#generation ";
+
+    private final Path path;
+
+    // 打开的日志文件（第一次写入时打开）
+    private FileChannel channel;
+    private Writer writer;
+
+    // 日志文件当前的代数，未知时为-1
+    private volatile long generation = -1;
+
+    // 等待写出的记录（由this保护）
+    private final List<Batch> queued = new ArrayList<>();
+
+    private record Batch(long generation, List<String> lines) {
+    }
+
+    public JournalFile(Path path) {
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * 日志文件当前的代数（read()或reset()之后有效），未知时为-1
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * 读取日志
+     * @param generation 快照的代数
+     * @return 日志中的记录；日志不存在或代数不一致时返回空列表
+     */
+    public List<String> read(long generation) throws IOException {
+        if (!Files.exists(path)) {
+            // 第一次追加时创建并写入代数
+            this.generation = generation;
+            return Collections.emptyList();
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null || !header.equals(HEADER_PREFIX + generation)) {
+                this.generation = -1;
+                return Collections.emptyList();
+            }
+            this.generation = generation;
+
+            List<String> lines = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+            return lines;
+        }
+    }
+
+    /**
+     * 把记录加入等待写出的队列
+     * @param generation 记录所属的快照代数
+     */
+    public synchronized void enqueue(long generation, List<String> lines) {
+        if (!lines.isEmpty()) {
+            queued.add(new Batch(generation, lines));
+        }
+    }
+
+    /**
+     * 写出队列中属于当前代数的记录，丢弃更旧的记录，更新的记录继续等待
+     */
+    public void writeQueued() throws IOException {
+        List<Batch> batches;
+        synchronized (this) {
+            if (queued.isEmpty()) return;
+            batches = new ArrayList<>(queued);
+            queued.clear();
+        }
+
+        long current = generation;
+        List<Batch> waiting = new ArrayList<>();
+        try {
+            for (Batch batch : batches) {
+                if (current >= 0 && batch.generation() == current) {
+                    append(batch.lines());
+                } else if (current < 0 || batch.generation() > current) {
+                    waiting.add(batch);
+                }
+            }
+        } finally {
+            if (!waiting.isEmpty()) {
+                synchronized (this) {
+                    queued.addAll(0, waiting);
+                }
+            }
+        }
+    }
+
+    /**
+     * 追加记录
+     */
+    private void append(List<String> lines) throws IOException {
+        if (lines.isEmpty()) return;
+
+        Writer out = open();
+        for (String line : lines) {
+            out.write(line);
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    /**
+     * 清空日志并写入新的代数
+     */
+    public void reset(long generation) throws IOException {
+        close();
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Files.writeString(path, HEADER_PREFIX + generation + "\n", StandardCharsets.UTF_8);
+        this.generation = generation;
+    }
+
+    /**
+     * 把已写入的记录同步到磁盘
+     */
+    public void sync() throws IOException {
+        if (channel != null) {
+            writer.flush();
+            channel.force(false);
+        }
+    }
+
+    public void close() throws IOException {
+        if (channel != null) {
+            try {
+                writer.close();
+            } finally {
+                channel = null;
+                writer = null;
+            }
+        }
+    }
+
+    private Writer open() throws IOException {
+        if (channel == null) {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            writer = Channels.newWriter(channel, StandardCharsets.UTF_8);
+            if (channel.size() == 0) {
+                // 新建的日志文件先写入代数
+                writer.write(HEADER_PREFIX + generation + "\n");
+            }
+        }
+        return writer;
+    }
+}